@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.sun.source.util.JavacTask;
+
+import saker.build.thirdparty.org.objectweb.asm.Opcodes;
+
+/**
+ * The javac element model of a {@link SyntheticCorpus}, used by the benchmarks.
+ * <p>
+ * The sources are analyzed with {@link JavacTask#analyze()}, and the processing environment is captured during
+ * annotation processing. The elements stay usable after the analysis, as the compiler context is kept alive by the
+ * task.
+ */
+public class ElementModel {
+	private final JavacTask task;
+	private final ProcessingEnvironment processingEnvironment;
+	private final List<TypeElement> types;
+	private final List<Element> members;
+	private final List<ExecutableElement> methods;
+	private final List<TypeMirror> memberTypes;
+
+	private ElementModel(JavacTask task, ProcessingEnvironment processingEnvironment, List<TypeElement> types) {
+		this.task = task;
+		this.processingEnvironment = processingEnvironment;
+		this.types = types;
+		List<Element> members = new ArrayList<>();
+		List<ExecutableElement> methods = new ArrayList<>();
+		List<TypeMirror> membertypes = new ArrayList<>();
+		for (TypeElement te : types) {
+			for (Element enclosed : te.getEnclosedElements()) {
+				members.add(enclosed);
+				ElementKind kind = enclosed.getKind();
+				if (kind == ElementKind.METHOD || kind == ElementKind.CONSTRUCTOR) {
+					ExecutableElement ee = (ExecutableElement) enclosed;
+					methods.add(ee);
+					membertypes.add(ee.getReturnType());
+					for (VariableElement param : ee.getParameters()) {
+						membertypes.add(param.asType());
+					}
+				} else if (kind.isField()) {
+					membertypes.add(enclosed.asType());
+				}
+			}
+		}
+		this.members = members;
+		this.methods = methods;
+		this.memberTypes = membertypes;
+	}
+
+	/**
+	 * Analyzes the sources of the given corpus.
+	 * 
+	 * @param corpus
+	 *            The corpus.
+	 * @return The element model.
+	 * @throws IOException
+	 *             If the compilation fails.
+	 */
+	public static ElementModel analyze(SyntheticCorpus corpus) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		StandardJavaFileManager fm = compiler.getStandardFileManager(diagnostics, null, null);
+		List<JavaFileObject> files = new ArrayList<>();
+		for (Entry<String, String> entry : corpus.generate().entrySet()) {
+			files.add(new SourceFileObject(entry.getKey(), entry.getValue()));
+		}
+		List<String> options = Arrays.asList("-proc:only",
+				"-A" + ApiExtractProcessor.OPTION_BASE_PACKAGES + "=" + SyntheticCorpus.BASE_PACKAGE);
+		JavacTask task = (JavacTask) compiler.getTask(null, fm, diagnostics, options, null, files);
+		CapturingProcessor capturer = new CapturingProcessor();
+		task.setProcessors(Collections.singleton(capturer));
+		task.analyze();
+		if (capturer.processingEnvironment == null) {
+			throw new IOException("Failed to analyze synthetic corpus: " + diagnostics.getDiagnostics());
+		}
+		return new ElementModel(task, capturer.processingEnvironment, capturer.types);
+	}
+
+	public ProcessingEnvironment getProcessingEnvironment() {
+		return processingEnvironment;
+	}
+
+	/**
+	 * Creates a new processor that is initialized with the captured processing environment.
+	 * 
+	 * @return The processor.
+	 */
+	public ApiExtractProcessor createProcessor() {
+		ApiExtractProcessor result = new ApiExtractProcessor();
+		result.init(processingEnvironment);
+		return result;
+	}
+
+	public List<TypeElement> getTypes() {
+		return types;
+	}
+
+	public List<Element> getMembers() {
+		return members;
+	}
+
+	public List<ExecutableElement> getMethods() {
+		return methods;
+	}
+
+	/**
+	 * Gets the types of the fields, and the parameter and return types of the methods.
+	 * 
+	 * @return The type mirrors.
+	 */
+	public List<TypeMirror> getMemberTypes() {
+		return memberTypes;
+	}
+
+	/**
+	 * Creates the API models of the types.
+	 * <p>
+	 * All public and protected members are included, without the inclusion rules of the processor.
+	 * 
+	 * @return The type models.
+	 */
+	public List<ApiTypeModel> createTypeModels() {
+		ApiExtractProcessor processor = createProcessor();
+		SymbolCache symbols = new SymbolCache(processingEnvironment.getElementUtils());
+		AnnotationModelFactory annotations = new AnnotationModelFactory(symbols, null);
+		List<ApiTypeModel> result = new ArrayList<>(types.size());
+		for (TypeElement te : types) {
+			List<ApiMemberModel> members = new ArrayList<>();
+			for (VariableElement ve : ElementFilter.fieldsIn(te.getEnclosedElements())) {
+				if (!isApi(ve)) {
+					continue;
+				}
+				members.add(new ApiFieldModel(getAccess(ve), ve.getSimpleName().toString(),
+						symbols.getDescriptor(ve.asType()), processor.createSignature(ve.asType()),
+						ve.getConstantValue(), annotations.getAnnotations(ve)));
+			}
+			for (ExecutableElement ee : ElementFilter.methodsIn(te.getEnclosedElements())) {
+				if (!isApi(ee)) {
+					continue;
+				}
+				List<? extends VariableElement> params = ee.getParameters();
+				String[] paramnames = new String[params.size()];
+				for (int i = 0; i < paramnames.length; i++) {
+					paramnames[i] = params.get(i).getSimpleName().toString();
+				}
+				members.add(new ApiMethodModel(getAccess(ee), ee.getSimpleName().toString(),
+						symbols.getMethodDescriptor(ee, Collections.emptyList()), null, null, paramnames,
+						new int[paramnames.length], annotations.getAnnotations(ee), null));
+			}
+			TypeMirror superc = te.getSuperclass();
+			String superinternalname = superc.getKind() == TypeKind.DECLARED ? symbols.getInternalName(superc)
+					: "java/lang/Object";
+			result.add(new ApiTypeModel(Opcodes.V1_8, getAccess(te) | Opcodes.ACC_SUPER, symbols.getInternalName(te),
+					null, superinternalname, null, annotations.getAnnotations(te), members));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the compiler task. Keeping a reference to it keeps the element model usable.
+	 * 
+	 * @return The task.
+	 */
+	public JavacTask getTask() {
+		return task;
+	}
+
+	private static boolean isApi(Element elem) {
+		Set<Modifier> modifiers = elem.getModifiers();
+		return modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.PROTECTED);
+	}
+
+	private static int getAccess(Element elem) {
+		Set<Modifier> modifiers = elem.getModifiers();
+		int result = 0;
+		if (modifiers.contains(Modifier.PUBLIC)) {
+			result |= Opcodes.ACC_PUBLIC;
+		}
+		if (modifiers.contains(Modifier.PROTECTED)) {
+			result |= Opcodes.ACC_PROTECTED;
+		}
+		if (modifiers.contains(Modifier.STATIC)) {
+			result |= Opcodes.ACC_STATIC;
+		}
+		if (modifiers.contains(Modifier.FINAL)) {
+			result |= Opcodes.ACC_FINAL;
+		}
+		if (modifiers.contains(Modifier.ABSTRACT)) {
+			result |= Opcodes.ACC_ABSTRACT;
+		}
+		return result;
+	}
+
+	private static final class SourceFileObject extends SimpleJavaFileObject {
+		protected final String contents;
+
+		public SourceFileObject(String path, String contents) {
+			super(URI.create("string:///" + path), Kind.SOURCE);
+			this.contents = contents;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return contents;
+		}
+	}
+
+	private static final class CapturingProcessor extends AbstractProcessor {
+		protected ProcessingEnvironment processingEnvironment;
+		protected final List<TypeElement> types = new ArrayList<>();
+
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return Collections.singleton("*");
+		}
+
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latest();
+		}
+
+		@Override
+		public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+			if (processingEnvironment == null) {
+				processingEnvironment = processingEnv;
+			}
+			for (TypeElement te : ElementFilter.typesIn(roundEnv.getRootElements())) {
+				addTypes(te);
+			}
+			return false;
+		}
+
+		private void addTypes(TypeElement te) {
+			types.add(te);
+			for (TypeElement nested : ElementFilter.typesIn(te.getEnclosedElements())) {
+				addTypes(nested);
+			}
+		}
+	}
+}
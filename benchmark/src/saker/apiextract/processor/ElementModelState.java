@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark state holding the element model of a synthetic corpus.
+ */
+@State(Scope.Benchmark)
+public class ElementModelState {
+	@Param({ "100" })
+	public int classCount;
+
+	@Param({ "20" })
+	public int membersPerClass;
+
+	@Param({ "2" })
+	public int genericDepth;
+
+	@Param({ "0.5" })
+	public double annotationDensity;
+
+	protected ElementModel model;
+
+	@Setup
+	public void setup() throws IOException {
+		int packagecount = Math.max(1, classCount / 25);
+		SyntheticCorpus corpus = new SyntheticCorpus().setPackageCount(packagecount)
+				.setClassesPerPackage(Math.max(1, classCount / packagecount)).setMembersPerClass(membersPerClass)
+				.setGenericDepth(genericDepth).setAnnotationDensity(annotationDensity);
+		model = ElementModel.analyze(corpus);
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.lang.model.element.Element;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the per-element queries of the processor: the package matching and the annotation model creation.
+ * <p>
+ * Run with <code>-prof gc</code> for the allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElementQueryBenchmark {
+	@State(Scope.Benchmark)
+	public static class WarmState {
+		protected PackageMatcher matcher;
+		protected AnnotationModelFactory annotations;
+
+		@Setup
+		public void setup(ElementModelState models) {
+			matcher = createMatcher();
+			annotations = new AnnotationModelFactory(
+					new SymbolCache(models.model.getProcessingEnvironment().getElementUtils()), null);
+		}
+	}
+
+	@Benchmark
+	public void packageMatchingCold(ElementModelState models, Blackhole bh) {
+		PackageMatcher matcher = createMatcher();
+		for (Element elem : models.model.getMembers()) {
+			bh.consume(ApiExtractProcessor.isInPackages(elem, matcher));
+		}
+	}
+
+	@Benchmark
+	public void packageMatchingWarm(ElementModelState models, WarmState state, Blackhole bh) {
+		PackageMatcher matcher = state.matcher;
+		for (Element elem : models.model.getMembers()) {
+			bh.consume(ApiExtractProcessor.isInPackages(elem, matcher));
+		}
+	}
+
+	@Benchmark
+	public void annotationModelsCold(ElementModelState models, Blackhole bh) {
+		AnnotationModelFactory annotations = new AnnotationModelFactory(
+				new SymbolCache(models.model.getProcessingEnvironment().getElementUtils()), null);
+		for (Element elem : models.model.getMembers()) {
+			bh.consume(annotations.getAnnotations(elem));
+		}
+	}
+
+	@Benchmark
+	public void annotationModelsWarm(ElementModelState models, WarmState state, Blackhole bh) {
+		AnnotationModelFactory annotations = state.annotations;
+		for (Element elem : models.model.getMembers()) {
+			bh.consume(annotations.getAnnotations(elem));
+		}
+	}
+
+	private static PackageMatcher createMatcher() {
+		return new PackageMatcher(Collections.singleton(SyntheticCorpus.BASE_PACKAGE),
+				Collections.singleton(SyntheticCorpus.BASE_PACKAGE + ".p1"));
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * End-to-end benchmark that compiles a generated {@link SyntheticCorpus} with {@link ApiExtractProcessor} attached.
+ * <p>
+ * The sources are generated to a temporary directory, and compiled in-process with <code>-proc:only</code>. The wall
+ * time of the compilation, the time spent in {@link ApiExtractProcessor#process(Set, RoundEnvironment)}, the peak heap
+ * usage and the bytes allocated by the compiling thread are reported for each iteration.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * MacroBenchmark [-packages n] [-classes n] [-members n] [-generic-depth n] [-annotation-density d]
+ *     [-public-ratio d] [-exclude-ratio d] [-seed n] [-warmup n] [-iterations n] [-A&lt;key&gt;=&lt;value&gt;]...
+ * </pre>
+ * 
+ * The <code>-classes</code> argument is the number of classes per package.
+ */
+public class MacroBenchmark {
+	private final SyntheticCorpus corpus;
+	private final List<String> processorOptions;
+
+	public MacroBenchmark(SyntheticCorpus corpus, List<String> processorOptions) {
+		this.corpus = corpus;
+		this.processorOptions = processorOptions;
+	}
+
+	/**
+	 * The measurements of a single compilation.
+	 */
+	public static final class Result {
+		protected final long wallNanos;
+		protected final long processNanos;
+		protected final long peakHeapBytes;
+		protected final long allocatedBytes;
+		protected final int outputFileCount;
+
+		public Result(long wallNanos, long processNanos, long peakHeapBytes, long allocatedBytes,
+				int outputFileCount) {
+			this.wallNanos = wallNanos;
+			this.processNanos = processNanos;
+			this.peakHeapBytes = peakHeapBytes;
+			this.allocatedBytes = allocatedBytes;
+			this.outputFileCount = outputFileCount;
+		}
+
+		@Override
+		public String toString() {
+			double wallms = wallNanos / 1_000_000d;
+			return String.format(Locale.ROOT,
+					"wall %.1f ms, process() %.1f ms, peak heap %.1f MiB, allocated %.1f MiB (%.1f MiB/s), %d outputs",
+					wallms, processNanos / 1_000_000d, peakHeapBytes / (1024d * 1024d),
+					allocatedBytes / (1024d * 1024d), allocatedBytes < 0 || wallNanos == 0 ? 0d
+							: (allocatedBytes / (1024d * 1024d)) / (wallNanos / 1_000_000_000d),
+					outputFileCount);
+		}
+	}
+
+	/**
+	 * Runs a single compilation of the corpus.
+	 * 
+	 * @return The measurements.
+	 * @throws IOException
+	 *             In case of I/O error or if the compilation fails.
+	 */
+	public Result run() throws IOException {
+		Path workdir = Files.createTempDirectory("saker.apiextract.macrobenchmark");
+		try {
+			Path srcdir = workdir.resolve("src");
+			Path outdir = workdir.resolve("api");
+			List<Path> sources = corpus.writeTo(srcdir);
+
+			JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+			DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+			StandardJavaFileManager sfm = compiler.getStandardFileManager(diagnostics, null, null);
+			JavaFileManager fm = new ApiOutputFileManager(sfm, outdir);
+
+			List<String> options = new ArrayList<>();
+			options.add("-proc:only");
+			options.add("-A" + ApiExtractProcessor.OPTION_BASE_PACKAGES + "=" + SyntheticCorpus.BASE_PACKAGE);
+			options.addAll(processorOptions);
+			CompilationTask task = compiler.getTask(null, fm, diagnostics, options, null,
+					sfm.getJavaFileObjectsFromPaths(sources));
+			TimingProcessor processor = new TimingProcessor(new ApiExtractProcessor());
+			task.setProcessors(Collections.singleton(processor));
+
+			System.gc();
+			List<MemoryPoolMXBean> heappools = getHeapPools();
+			for (MemoryPoolMXBean pool : heappools) {
+				pool.resetPeakUsage();
+			}
+			long allocstart = getCurrentThreadAllocatedBytes();
+			long start = System.nanoTime();
+			boolean success = task.call();
+			long wall = System.nanoTime() - start;
+			long allocated = allocstart < 0 ? -1 : getCurrentThreadAllocatedBytes() - allocstart;
+			long peakheap = 0;
+			for (MemoryPoolMXBean pool : heappools) {
+				peakheap += pool.getPeakUsage().getUsed();
+			}
+			if (!success) {
+				throw new IOException("Compilation failed: " + diagnostics.getDiagnostics());
+			}
+			return new Result(wall, processor.processNanos, peakheap, allocated, countFiles(outdir));
+		} finally {
+			deleteRecursively(workdir);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		SyntheticCorpus corpus = new SyntheticCorpus();
+		List<String> processoroptions = new ArrayList<>();
+		int warmup = 2;
+		int iterations = 5;
+		for (int i = 0; i < args.length; i++) {
+			String a = args[i];
+			if (a.startsWith("-A")) {
+				processoroptions.add(a);
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for argument: " + a);
+			}
+			String v = args[++i];
+			switch (a) {
+				case "-packages": {
+					corpus.setPackageCount(Integer.parseInt(v));
+					break;
+				}
+				case "-classes": {
+					corpus.setClassesPerPackage(Integer.parseInt(v));
+					break;
+				}
+				case "-members": {
+					corpus.setMembersPerClass(Integer.parseInt(v));
+					break;
+				}
+				case "-generic-depth": {
+					corpus.setGenericDepth(Integer.parseInt(v));
+					break;
+				}
+				case "-annotation-density": {
+					corpus.setAnnotationDensity(Double.parseDouble(v));
+					break;
+				}
+				case "-public-ratio": {
+					corpus.setPublicApiRatio(Double.parseDouble(v));
+					break;
+				}
+				case "-exclude-ratio": {
+					corpus.setExcludeApiRatio(Double.parseDouble(v));
+					break;
+				}
+				case "-seed": {
+					corpus.setSeed(Long.parseLong(v));
+					break;
+				}
+				case "-warmup": {
+					warmup = Integer.parseInt(v);
+					break;
+				}
+				case "-iterations": {
+					iterations = Integer.parseInt(v);
+					break;
+				}
+				default: {
+					throw new IllegalArgumentException("Unknown argument: " + a);
+				}
+			}
+		}
+		System.out.println("Corpus: " + corpus + " (" + corpus.getClassCount() + " classes)");
+		System.out.println("Processor options: " + processoroptions);
+		MacroBenchmark benchmark = new MacroBenchmark(corpus, processoroptions);
+		for (int i = 0; i < warmup; i++) {
+			System.out.println("Warmup " + (i + 1) + ": " + benchmark.run());
+		}
+		long[] walls = new long[iterations];
+		long[] processes = new long[iterations];
+		for (int i = 0; i < iterations; i++) {
+			Result r = benchmark.run();
+			walls[i] = r.wallNanos;
+			processes[i] = r.processNanos;
+			System.out.println("Iteration " + (i + 1) + ": " + r);
+		}
+		if (iterations > 0) {
+			Arrays.sort(walls);
+			Arrays.sort(processes);
+			System.out.println(String.format(Locale.ROOT, "Median: wall %.1f ms, process() %.1f ms",
+					walls[iterations / 2] / 1_000_000d, processes[iterations / 2] / 1_000_000d));
+		}
+	}
+
+	private static List<MemoryPoolMXBean> getHeapPools() {
+		List<MemoryPoolMXBean> result = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				result.add(pool);
+			}
+		}
+		return result;
+	}
+
+	private static long getCurrentThreadAllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunbean = (com.sun.management.ThreadMXBean) bean;
+			if (sunbean.isThreadAllocatedMemorySupported() && sunbean.isThreadAllocatedMemoryEnabled()) {
+				return sunbean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	private static int countFiles(Path dir) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return 0;
+		}
+		int[] count = { 0 };
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				++count[0];
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return count[0];
+	}
+
+	private static void deleteRecursively(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return;
+		}
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+				Files.delete(d);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * File manager that maps the <code>API_OUTPUT</code> location to a directory.
+	 */
+	private static final class ApiOutputFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+		protected final Path outputDirectory;
+
+		public ApiOutputFileManager(StandardJavaFileManager fileManager, Path outputDirectory) {
+			super(fileManager);
+			this.outputDirectory = outputDirectory;
+		}
+
+		@Override
+		public boolean hasLocation(Location location) {
+			return isApiOutput(location) || super.hasLocation(location);
+		}
+
+		@Override
+		public FileObject getFileForOutput(Location location, String packageName, String relativeName,
+				FileObject sibling) throws IOException {
+			if (isApiOutput(location)) {
+				Path path = resolve(packageName, relativeName);
+				Files.createDirectories(path.getParent());
+				return fileManager.getJavaFileObjects(path.toFile()).iterator().next();
+			}
+			return super.getFileForOutput(location, packageName, relativeName, sibling);
+		}
+
+		@Override
+		public FileObject getFileForInput(Location location, String packageName, String relativeName)
+				throws IOException {
+			if (isApiOutput(location)) {
+				return fileManager.getJavaFileObjects(resolve(packageName, relativeName).toFile()).iterator().next();
+			}
+			return super.getFileForInput(location, packageName, relativeName);
+		}
+
+		private Path resolve(String packageName, String relativeName) {
+			Path dir = packageName.isEmpty() ? outputDirectory
+					: outputDirectory.resolve(packageName.replace('.', '/'));
+			return dir.resolve(relativeName);
+		}
+
+		private static boolean isApiOutput(Location location) {
+			return "API_OUTPUT".equals(location.getName());
+		}
+	}
+
+	/**
+	 * Processor that measures the time spent in the delegate processor.
+	 */
+	private static final class TimingProcessor implements Processor {
+		protected final Processor delegate;
+		protected long processNanos;
+
+		public TimingProcessor(Processor delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Set<String> getSupportedOptions() {
+			return delegate.getSupportedOptions();
+		}
+
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return delegate.getSupportedAnnotationTypes();
+		}
+
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return delegate.getSupportedSourceVersion();
+		}
+
+		@Override
+		public void init(ProcessingEnvironment processingEnv) {
+			long start = System.nanoTime();
+			delegate.init(processingEnv);
+			processNanos += System.nanoTime() - start;
+		}
+
+		@Override
+		public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+			long start = System.nanoTime();
+			try {
+				return delegate.process(annotations, roundEnv);
+			} finally {
+				processNanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation,
+				ExecutableElement member, String userText) {
+			return delegate.getCompletions(element, annotation, member, userText);
+		}
+	}
+}
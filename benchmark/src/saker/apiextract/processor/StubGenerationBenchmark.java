@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the creation of the stub class files from the API type models.
+ * <p>
+ * Run with <code>-prof gc</code> for the allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StubGenerationBenchmark {
+	@State(Scope.Benchmark)
+	public static class ModelState {
+		@Param({ "THROW", "NULL" })
+		public ApiStubGenerator.BodyPolicy bodyPolicy;
+		@Param({ "true", "false" })
+		public boolean parameterNames;
+
+		protected List<ApiTypeModel> typeModels;
+
+		@Setup
+		public void setup(ElementModelState models) {
+			typeModels = models.model.createTypeModels();
+		}
+	}
+
+	@Benchmark
+	public void createTypeModels(ElementModelState models, Blackhole bh) {
+		bh.consume(models.model.createTypeModels());
+	}
+
+	@Benchmark
+	public void generateStubs(ModelState state, Blackhole bh) {
+		for (ApiTypeModel type : state.typeModels) {
+			bh.consume(ApiStubGenerator.generate(type, state.bodyPolicy, state.parameterNames));
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.type.TypeMirror;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the descriptor and generic signature creation of the member types.
+ * <p>
+ * The cold benchmarks use a new {@link SymbolCache} for each invocation, which corresponds to a single compilation.
+ * Run with <code>-prof gc</code> for the allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SymbolBenchmark {
+	@State(Scope.Benchmark)
+	public static class ProcessorState {
+		protected ApiExtractProcessor processor;
+		protected SymbolCache warmSymbols;
+
+		@Setup
+		public void setup(ElementModelState models) {
+			processor = models.model.createProcessor();
+			warmSymbols = new SymbolCache(models.model.getProcessingEnvironment().getElementUtils());
+		}
+	}
+
+	@Benchmark
+	public void typeDescriptorsCold(ElementModelState models, Blackhole bh) {
+		SymbolCache symbols = new SymbolCache(models.model.getProcessingEnvironment().getElementUtils());
+		for (TypeMirror tm : models.model.getMemberTypes()) {
+			bh.consume(symbols.getDescriptor(tm));
+		}
+	}
+
+	@Benchmark
+	public void methodDescriptorsCold(ElementModelState models, Blackhole bh) {
+		SymbolCache symbols = new SymbolCache(models.model.getProcessingEnvironment().getElementUtils());
+		for (ExecutableElement ee : models.model.getMethods()) {
+			bh.consume(symbols.getMethodDescriptor(ee, Collections.emptyList()));
+		}
+	}
+
+	@Benchmark
+	public void methodDescriptorsWarm(ElementModelState models, ProcessorState state, Blackhole bh) {
+		SymbolCache symbols = state.warmSymbols;
+		for (ExecutableElement ee : models.model.getMethods()) {
+			bh.consume(symbols.getMethodDescriptor(ee, Collections.emptyList()));
+		}
+	}
+
+	@Benchmark
+	public void signatures(ElementModelState models, ProcessorState state, Blackhole bh) {
+		ApiExtractProcessor processor = state.processor;
+		for (TypeMirror tm : models.model.getMemberTypes()) {
+			bh.consume(processor.createSignature(tm));
+		}
+	}
+}
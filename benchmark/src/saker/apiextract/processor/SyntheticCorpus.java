@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * Generates the sources of a synthetic Java project for benchmarking.
+ * <p>
+ * The generated classes are annotated with {@link saker.apiextract.api.PublicApi} and
+ * {@link saker.apiextract.api.ExcludeApi}, and contain fields, methods and nested classes with generic types and
+ * annotations based on the configuration. The same configuration always
+ * generates the same sources.
+ */
+public class SyntheticCorpus {
+	/**
+	 * The base package of the generated classes.
+	 */
+	public static final String BASE_PACKAGE = "bench.api";
+
+	private int packageCount = 4;
+	private int classesPerPackage = 25;
+	private int membersPerClass = 20;
+	private int genericDepth = 2;
+	private double annotationDensity = 0.5;
+	private double publicApiRatio = 1;
+	private double excludeApiRatio = 0;
+	private long seed = 1;
+
+	public SyntheticCorpus() {
+	}
+
+	public SyntheticCorpus setPackageCount(int packageCount) {
+		this.packageCount = packageCount;
+		return this;
+	}
+
+	public SyntheticCorpus setClassesPerPackage(int classesPerPackage) {
+		this.classesPerPackage = classesPerPackage;
+		return this;
+	}
+
+	public SyntheticCorpus setMembersPerClass(int membersPerClass) {
+		this.membersPerClass = membersPerClass;
+		return this;
+	}
+
+	/**
+	 * Sets how deeply the generic type arguments of the member types are nested.
+	 * 
+	 * @param genericDepth
+	 *            The generic depth. 0 means no generic types.
+	 * @return <code>this</code>
+	 */
+	public SyntheticCorpus setGenericDepth(int genericDepth) {
+		this.genericDepth = genericDepth;
+		return this;
+	}
+
+	/**
+	 * Sets the probability of a member being annotated.
+	 * 
+	 * @param annotationDensity
+	 *            The density between 0 and 1.
+	 * @return <code>this</code>
+	 */
+	public SyntheticCorpus setAnnotationDensity(double annotationDensity) {
+		this.annotationDensity = annotationDensity;
+		return this;
+	}
+
+	/**
+	 * Sets the ratio of the classes that are annotated with {@link saker.apiextract.api.PublicApi}.
+	 * <p>
+	 * The classes which are not annotated are only included in the API if they are referenced by an annotated class.
+	 * 
+	 * @param publicApiRatio
+	 *            The ratio between 0 and 1.
+	 * @return <code>this</code>
+	 */
+	public SyntheticCorpus setPublicApiRatio(double publicApiRatio) {
+		this.publicApiRatio = publicApiRatio;
+		return this;
+	}
+
+	/**
+	 * Sets the probability of a member being annotated with {@link saker.apiextract.api.ExcludeApi}.
+	 * 
+	 * @param excludeApiRatio
+	 *            The ratio between 0 and 1.
+	 * @return <code>this</code>
+	 */
+	public SyntheticCorpus setExcludeApiRatio(double excludeApiRatio) {
+		this.excludeApiRatio = excludeApiRatio;
+		return this;
+	}
+
+	public SyntheticCorpus setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	public int getClassCount() {
+		return packageCount * classesPerPackage;
+	}
+
+	/**
+	 * Generates the sources.
+	 * 
+	 * @return The source file contents mapped to their paths relative to the source directory.
+	 */
+	public Map<String, String> generate() {
+		Random random = new Random(seed);
+		Map<String, String> result = new LinkedHashMap<>();
+		result.put(BASE_PACKAGE.replace('.', '/') + "/Marker.java", generateAnnotation());
+		for (int p = 0; p < packageCount; p++) {
+			String pack = getPackageName(p);
+			for (int c = 0; c < classesPerPackage; c++) {
+				String cname = getClassName(c);
+				result.put(pack.replace('.', '/') + "/" + cname + ".java", generateClass(random, p, c));
+			}
+		}
+		return result;
+	}
+
+	protected String getPackageName(int p) {
+		return BASE_PACKAGE + ".p" + p;
+	}
+
+	protected String getClassName(int c) {
+		return "C" + c;
+	}
+
+	/**
+	 * Writes the generated sources to the given directory.
+	 * 
+	 * @param directory
+	 *            The source directory.
+	 * @return The paths of the written files.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 */
+	public List<Path> writeTo(Path directory) throws IOException {
+		List<Path> result = new ArrayList<>();
+		for (Entry<String, String> entry : generate().entrySet()) {
+			Path file = directory.resolve(entry.getKey());
+			Files.createDirectories(file.getParent());
+			Files.write(file, entry.getValue().getBytes(StandardCharsets.UTF_8));
+			result.add(file);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "packages=" + packageCount + ", classesPerPackage=" + classesPerPackage + ", membersPerClass="
+				+ membersPerClass + ", genericDepth=" + genericDepth + ", annotationDensity=" + annotationDensity
+				+ ", publicApiRatio=" + publicApiRatio + ", excludeApiRatio=" + excludeApiRatio + ", seed=" + seed;
+	}
+
+	protected void appendClassAnnotations(StringBuilder sb, Random random, int p, int c) {
+		if (random.nextDouble() < publicApiRatio) {
+			sb.append("@saker.apiextract.api.PublicApi\n");
+		}
+	}
+
+	protected void appendMemberAnnotations(StringBuilder sb, Random random, int p, int c, int m) {
+		if (random.nextDouble() < excludeApiRatio) {
+			sb.append("\t@saker.apiextract.api.ExcludeApi\n");
+		}
+		if (random.nextDouble() < annotationDensity) {
+			sb.append("\t@" + BASE_PACKAGE + ".Marker(value = \"m").append(m).append("\", priority = ")
+					.append(random.nextInt(10)).append(")\n");
+		}
+		if (random.nextDouble() < annotationDensity / 4) {
+			sb.append("\t@Deprecated\n");
+		}
+	}
+
+	private static String generateAnnotation() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(BASE_PACKAGE).append(";\n\n");
+		sb.append("@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME)\n");
+		sb.append("public @interface Marker {\n");
+		sb.append("\tString value();\n");
+		sb.append("\tint priority() default 0;\n");
+		sb.append("\tThread.State[] states() default {};\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private String generateClass(Random random, int p, int c) {
+		String cname = getClassName(c);
+		StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(getPackageName(p)).append(";\n\n");
+		sb.append("/**\n * Synthetic class.\n */\n");
+		appendClassAnnotations(sb, random, p, c);
+		sb.append("public class ").append(cname).append("<T extends Comparable<? super T>>");
+		if (c > 0 && random.nextBoolean()) {
+			//extend a previous class in the same package
+			sb.append(" extends ").append(getClassName(random.nextInt(c))).append("<T>");
+		}
+		sb.append(" implements java.io.Serializable {\n");
+		for (int m = 0; m < membersPerClass; m++) {
+			//the member names are unique in the hierarchy to avoid clashing with the members of the superclass
+			String suffix = c + "_" + m;
+			appendMemberAnnotations(sb, random, p, c, m);
+			switch (random.nextInt(4)) {
+				case 0: {
+					sb.append("\tpublic static final int CONST_").append(suffix).append(" = ").append(random.nextInt())
+							.append(";\n");
+					break;
+				}
+				case 1: {
+					sb.append("\tpublic ").append(randomType(random, genericDepth)).append(" field").append(suffix)
+							.append(";\n");
+					break;
+				}
+				case 2: {
+					sb.append("\tpublic <X extends Number> ").append(randomType(random, genericDepth)).append(" method")
+							.append(suffix).append("(X x, ").append(randomType(random, genericDepth))
+							.append(" arg, T t) throws java.io.IOException {\n\t\treturn null;\n\t}\n");
+					break;
+				}
+				default: {
+					sb.append("\tprotected int compute").append(suffix).append("(int a, long[] b, String s) {\n")
+							.append("\t\treturn a;\n\t}\n");
+					break;
+				}
+			}
+		}
+		sb.append("\tpublic static class Nested").append(c).append(" {\n\t\tpublic void run() {\n\t\t}\n\t}\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private static String randomType(Random random, int depth) {
+		if (depth <= 0) {
+			switch (random.nextInt(4)) {
+				case 0: {
+					return "String";
+				}
+				case 1: {
+					return "Integer";
+				}
+				case 2: {
+					return "T";
+				}
+				default: {
+					return "Thread.State";
+				}
+			}
+		}
+		switch (random.nextInt(3)) {
+			case 0: {
+				return "java.util.List<" + randomType(random, depth - 1) + ">";
+			}
+			case 1: {
+				return "java.util.Map<String, " + randomType(random, depth - 1) + ">";
+			}
+			default: {
+				return "java.util.function.Function<? super " + randomType(random, depth - 1) + ", ? extends "
+						+ randomType(random, depth - 1) + ">";
+			}
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.lang.model.AnnotatedConstruct;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.AnnotationValueVisitor;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+
+import saker.build.thirdparty.org.objectweb.asm.Type;
+
+/**
+ * Creates the {@link ApiAnnotationModel} instances for the annotations of the source elements.
+ * <p>
+ * The retention policy is resolved once for each annotation type. The annotations without element values are shared
+ * per annotation type, and the ones with element values are interned, so identical annotations on different members
+ * use the same model instance.
+ * <p>
+ * The class is not thread safe, it should only be used on the processing thread.
+ */
+final class AnnotationModelFactory {
+	private static final String RETENTION_CLASSNAME = Retention.class.getName();
+
+	private final SymbolCache symbols;
+	private final ClasspathTypeCache classpathTypes;
+	private final AnnotationValueModelVisitor valueVisitor = new AnnotationValueModelVisitor();
+
+	private final Map<TypeElement, RetentionPolicy> retentionPolicies = new HashMap<>();
+	private final Map<TypeElement, ApiAnnotationModel> markerAnnotations = new HashMap<>();
+	private final Map<ApiAnnotationModel, ApiAnnotationModel> internedAnnotations = new HashMap<>();
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param symbols
+	 *            The symbol cache.
+	 * @param classpathTypes
+	 *            The cache to get the retention policies of the annotation types from, or <code>null</code> to
+	 *            resolve them directly.
+	 */
+	public AnnotationModelFactory(SymbolCache symbols, ClasspathTypeCache classpathTypes) {
+		this.symbols = symbols;
+		this.classpathTypes = classpathTypes;
+	}
+
+	/**
+	 * Gets the models of the annotations on the given construct that are retained in the class file.
+	 * 
+	 * @param construct
+	 *            The annotated construct.
+	 * @return The annotation models. Not modifiable.
+	 */
+	public List<ApiAnnotationModel> getAnnotations(AnnotatedConstruct construct) {
+		List<? extends AnnotationMirror> mirrors = construct.getAnnotationMirrors();
+		if (mirrors.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<ApiAnnotationModel> result = null;
+		for (AnnotationMirror am : mirrors) {
+			DeclaredType amtype = am.getAnnotationType();
+			if (amtype == null) {
+				continue;
+			}
+			TypeElement amelem = (TypeElement) amtype.asElement();
+			RetentionPolicy retpolicy = getRetentionPolicy(amelem);
+			if (retpolicy == RetentionPolicy.SOURCE) {
+				continue;
+			}
+			if (result == null) {
+				result = new ArrayList<>(mirrors.size());
+			}
+			result.add(getAnnotation(am, amelem, retpolicy == RetentionPolicy.RUNTIME));
+		}
+		if (result == null) {
+			return Collections.emptyList();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the model representation of an annotation element value.
+	 * 
+	 * @param value
+	 *            The annotation value.
+	 * @return The value in the format specified by {@link ApiAnnotationModel#getValues()}.
+	 */
+	public Object getValue(AnnotationValue value) {
+		return valueVisitor.visit(value);
+	}
+
+	public RetentionPolicy getRetentionPolicy(TypeElement annotationelement) {
+		RetentionPolicy result = retentionPolicies.get(annotationelement);
+		if (result == null) {
+			result = classpathTypes == null ? resolveRetentionPolicy(annotationelement)
+					: classpathTypes.get(annotationelement).getRetentionPolicy();
+			retentionPolicies.put(annotationelement, result);
+		}
+		return result;
+	}
+
+	private ApiAnnotationModel getAnnotation(AnnotationMirror am, TypeElement amelem, boolean visible) {
+		Map<? extends ExecutableElement, ? extends AnnotationValue> elemvalues = am.getElementValues();
+		if (elemvalues.isEmpty()) {
+			ApiAnnotationModel result = markerAnnotations.get(amelem);
+			if (result == null) {
+				result = new ApiAnnotationModel(symbols.getDescriptor(amelem), visible, Collections.emptyMap());
+				markerAnnotations.put(amelem, result);
+			}
+			return result;
+		}
+		return createAnnotation(symbols.getDescriptor(amelem), visible, elemvalues);
+	}
+
+	private ApiAnnotationModel createAnnotation(String descriptor, boolean visible,
+			Map<? extends ExecutableElement, ? extends AnnotationValue> elemvalues) {
+		Map<String, Object> values;
+		if (elemvalues.isEmpty()) {
+			values = Collections.emptyMap();
+		} else {
+			values = new LinkedHashMap<>();
+			for (Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elemvalues.entrySet()) {
+				values.put(entry.getKey().getSimpleName().toString(), valueVisitor.visit(entry.getValue()));
+			}
+		}
+		ApiAnnotationModel model = new ApiAnnotationModel(descriptor, visible, values);
+		ApiAnnotationModel prev = internedAnnotations.putIfAbsent(model, model);
+		return prev == null ? model : prev;
+	}
+
+	static RetentionPolicy resolveRetentionPolicy(TypeElement annotationelement) {
+		//read the Retention annotation through the mirrors rather than the reflective proxy of getAnnotation
+		for (AnnotationMirror am : annotationelement.getAnnotationMirrors()) {
+			TypeElement amelem = (TypeElement) am.getAnnotationType().asElement();
+			if (!amelem.getQualifiedName().contentEquals(RETENTION_CLASSNAME)) {
+				continue;
+			}
+			for (Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : am.getElementValues()
+					.entrySet()) {
+				if (!entry.getKey().getSimpleName().contentEquals("value")) {
+					continue;
+				}
+				Object val = entry.getValue().getValue();
+				if (val instanceof VariableElement) {
+					try {
+						return RetentionPolicy.valueOf(((VariableElement) val).getSimpleName().toString());
+					} catch (IllegalArgumentException e) {
+						//unknown policy, fall back to the default
+					}
+				}
+			}
+			break;
+		}
+		return RetentionPolicy.CLASS;
+	}
+
+	private final class AnnotationValueModelVisitor implements AnnotationValueVisitor<Object, Void> {
+		@Override
+		public Object visit(AnnotationValue av, Void p) {
+			return av.accept(this, p);
+		}
+
+		@Override
+		public Object visit(AnnotationValue av) {
+			return av.accept(this, null);
+		}
+
+		@Override
+		public Object visitBoolean(boolean b, Void p) {
+			return b;
+		}
+
+		@Override
+		public Object visitByte(byte b, Void p) {
+			return b;
+		}
+
+		@Override
+		public Object visitChar(char c, Void p) {
+			return c;
+		}
+
+		@Override
+		public Object visitDouble(double d, Void p) {
+			return d;
+		}
+
+		@Override
+		public Object visitFloat(float f, Void p) {
+			return f;
+		}
+
+		@Override
+		public Object visitInt(int i, Void p) {
+			return i;
+		}
+
+		@Override
+		public Object visitLong(long i, Void p) {
+			return i;
+		}
+
+		@Override
+		public Object visitShort(short s, Void p) {
+			return s;
+		}
+
+		@Override
+		public Object visitString(String s, Void p) {
+			return s;
+		}
+
+		@Override
+		public Object visitType(TypeMirror t, Void p) {
+			return Type.getObjectType(symbols.getInternalName(t));
+		}
+
+		@Override
+		public Object visitEnumConstant(VariableElement c, Void p) {
+			TypeMirror ctype = c.asType();
+			Name csimplename = c.getSimpleName();
+			return new ApiAnnotationModel.EnumValue(symbols.getDescriptor(ctype), csimplename.toString());
+		}
+
+		@Override
+		public Object visitAnnotation(AnnotationMirror a, Void p) {
+			return createAnnotation(symbols.getDescriptor(a.getAnnotationType()), false, a.getElementValues());
+		}
+
+		@Override
+		public Object visitArray(List<? extends AnnotationValue> vals, Void p) {
+			List<Object> result = new ArrayList<>(vals.size());
+			for (AnnotationValue av : vals) {
+				result.add(av.accept(this, p));
+			}
+			return Collections.unmodifiableList(result);
+		}
+
+		@Override
+		public Object visitUnknown(AnnotationValue av, Void p) {
+			throw new UnsupportedOperationException("Unknown annotation value: " + av);
+		}
+	}
+
+}
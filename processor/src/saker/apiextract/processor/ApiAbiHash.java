@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Computes the ABI hashes of the whole API and of each package from the fingerprints of the classes.
+ * <p>
+ * The classes should be added in a deterministic order, as the hashes depend on it.
+ */
+final class ApiAbiHash {
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final String API_KEY = "api";
+	private static final String PACKAGE_KEY_PREFIX = "package.";
+	private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+	private final MessageDigest apiDigest = createDigest();
+	private final Map<String, MessageDigest> packageDigests = new TreeMap<>();
+
+	public ApiAbiHash() {
+	}
+
+	/**
+	 * Adds a class to the hashes.
+	 * 
+	 * @param binaryname
+	 *            The binary name of the class.
+	 * @param fingerprint
+	 *            The fingerprint of the class.
+	 * @see ApiFingerprintIndex#fingerprint(ApiTypeModel)
+	 */
+	public void add(String binaryname, byte[] fingerprint) {
+		int packidx = binaryname.lastIndexOf('.');
+		String packagename = packidx < 0 ? "" : binaryname.substring(0, packidx);
+		MessageDigest packdigest = packageDigests.get(packagename);
+		if (packdigest == null) {
+			packdigest = createDigest();
+			packageDigests.put(packagename, packdigest);
+		}
+		byte[] namebytes = binaryname.getBytes(StandardCharsets.UTF_8);
+		update(apiDigest, namebytes, fingerprint);
+		update(packdigest, namebytes, fingerprint);
+	}
+
+	/**
+	 * Gets the contents of the ABI hash file.
+	 * <p>
+	 * The hashes are formatted as properties. The <code>api</code> key has the hash of the whole API, and the
+	 * <code>package.&lt;name&gt;</code> keys have the hashes of the packages, in alphabetical order. The file only
+	 * contains ASCII characters, the non-ASCII characters of the keys are escaped the same way as
+	 * {@link java.util.Properties#store(java.io.OutputStream, String)} does.
+	 * <p>
+	 * This method can only be called once.
+	 * 
+	 * @return The bytes of the file.
+	 */
+	public byte[] toByteArray() {
+		StringBuilder sb = new StringBuilder();
+		appendHash(sb, API_KEY, apiDigest.digest());
+		for (Entry<String, MessageDigest> entry : packageDigests.entrySet()) {
+			appendHash(sb, PACKAGE_KEY_PREFIX + entry.getKey(), entry.getValue().digest());
+		}
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static void update(MessageDigest digest, byte[] namebytes, byte[] fingerprint) {
+		//the lengths are included, so the concatenation of different entries cannot collide
+		updateInt(digest, namebytes.length);
+		digest.update(namebytes);
+		updateInt(digest, fingerprint.length);
+		digest.update(fingerprint);
+	}
+
+	private static void updateInt(MessageDigest digest, int v) {
+		digest.update((byte) (v >>> 24));
+		digest.update((byte) (v >>> 16));
+		digest.update((byte) (v >>> 8));
+		digest.update((byte) v);
+	}
+
+	private static void appendHash(StringBuilder sb, String key, byte[] hash) {
+		appendKey(sb, key);
+		sb.append('=');
+		for (byte b : hash) {
+			sb.append(HEX_CHARS[(b >>> 4) & 0xF]);
+			sb.append(HEX_CHARS[b & 0xF]);
+		}
+		sb.append('\n');
+	}
+
+	private static void appendKey(StringBuilder sb, String key) {
+		int len = key.length();
+		for (int i = 0; i < len; i++) {
+			char c = key.charAt(i);
+			switch (c) {
+				case ' ':
+				case '\\':
+				case '=':
+				case ':':
+				case '#':
+				case '!': {
+					sb.append('\\');
+					sb.append(c);
+					break;
+				}
+				case '\t': {
+					sb.append("\\t");
+					break;
+				}
+				case '\n': {
+					sb.append("\\n");
+					break;
+				}
+				case '\r': {
+					sb.append("\\r");
+					break;
+				}
+				case '\f': {
+					sb.append("\\f");
+					break;
+				}
+				default: {
+					if (c < 0x20 || c > 0x7e) {
+						sb.append("\\u");
+						sb.append(HEX_CHARS[(c >>> 12) & 0xF]);
+						sb.append(HEX_CHARS[(c >>> 8) & 0xF]);
+						sb.append(HEX_CHARS[(c >>> 4) & 0xF]);
+						sb.append(HEX_CHARS[c & 0xF]);
+					} else {
+						sb.append(c);
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(HASH_ALGORITHM + " is not available.", e);
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import saker.build.thirdparty.org.objectweb.asm.Type;
+
+/**
+ * Model of an annotation with its element values.
+ * <p>
+ * The element values are represented the following way:
+ * <ul>
+ * <li>Primitives and strings are boxed the same way as for {@code AnnotationVisitor.visit(String, Object)}.</li>
+ * <li>Class literals are represented by {@link Type}.</li>
+ * <li>Enum constants are represented by {@link EnumValue}.</li>
+ * <li>Nested annotations are represented by {@link ApiAnnotationModel}.</li>
+ * <li>Arrays are represented by an unmodifiable {@link List} of element values.</li>
+ * </ul>
+ */
+final class ApiAnnotationModel {
+	private static final byte TAG_BOOLEAN = 'Z';
+	private static final byte TAG_BYTE = 'B';
+	private static final byte TAG_CHAR = 'C';
+	private static final byte TAG_SHORT = 'S';
+	private static final byte TAG_INT = 'I';
+	private static final byte TAG_LONG = 'J';
+	private static final byte TAG_FLOAT = 'F';
+	private static final byte TAG_DOUBLE = 'D';
+	private static final byte TAG_STRING = 's';
+	private static final byte TAG_CLASS = 'c';
+	private static final byte TAG_ENUM = 'e';
+	private static final byte TAG_ANNOTATION = '@';
+	private static final byte TAG_ARRAY = '[';
+
+	/**
+	 * Enumeration constant annotation element value.
+	 */
+	public static final class EnumValue {
+		private final String descriptor;
+		private final String value;
+
+		public EnumValue(String descriptor, String value) {
+			this.descriptor = descriptor;
+			this.value = value;
+		}
+
+		public String getDescriptor() {
+			return descriptor;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		@Override
+		public int hashCode() {
+			return descriptor.hashCode() * 31 + value.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			EnumValue other = (EnumValue) obj;
+			return descriptor.equals(other.descriptor) && value.equals(other.value);
+		}
+
+		@Override
+		public String toString() {
+			return descriptor + "." + value;
+		}
+	}
+
+	private final String descriptor;
+	private final boolean visible;
+	private final Map<String, Object> values;
+
+	public ApiAnnotationModel(String descriptor, boolean visible, Map<String, Object> values) {
+		this.descriptor = descriptor;
+		this.visible = visible;
+		this.values = values.isEmpty() ? Collections.emptyMap()
+				: Collections.unmodifiableMap(new LinkedHashMap<>(values));
+	}
+
+	public String getDescriptor() {
+		return descriptor;
+	}
+
+	/**
+	 * Gets if the annotation is visible at runtime.
+	 * <p>
+	 * Not applicable for nested annotation values.
+	 * 
+	 * @return <code>true</code> if the annotation has {@link java.lang.annotation.RetentionPolicy#RUNTIME RUNTIME}
+	 *             retention.
+	 */
+	public boolean isVisible() {
+		return visible;
+	}
+
+	/**
+	 * Gets the explicitly declared element values of the annotation.
+	 * 
+	 * @return An unmodifiable map of element names to values in declaration order.
+	 */
+	public Map<String, Object> getValues() {
+		return values;
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeUTF(descriptor);
+		out.writeBoolean(visible);
+		out.writeInt(values.size());
+		for (Entry<String, Object> entry : values.entrySet()) {
+			out.writeUTF(entry.getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	public static ApiAnnotationModel readFrom(DataInput in) throws IOException {
+		String descriptor = in.readUTF();
+		boolean visible = in.readBoolean();
+		int count = in.readInt();
+		Map<String, Object> values = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			values.put(name, readValue(in));
+		}
+		return new ApiAnnotationModel(descriptor, visible, values);
+	}
+
+	@Override
+	public int hashCode() {
+		return descriptor.hashCode() * 31 + values.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		ApiAnnotationModel other = (ApiAnnotationModel) obj;
+		return visible == other.visible && descriptor.equals(other.descriptor) && values.equals(other.values);
+	}
+
+	@Override
+	public String toString() {
+		return "@" + descriptor + values;
+	}
+
+	static void writeAnnotations(DataOutput out, List<ApiAnnotationModel> annotations) throws IOException {
+		out.writeInt(annotations.size());
+		for (ApiAnnotationModel a : annotations) {
+			a.writeTo(out);
+		}
+	}
+
+	static List<ApiAnnotationModel> readAnnotations(DataInput in) throws IOException {
+		int count = in.readInt();
+		if (count == 0) {
+			return Collections.emptyList();
+		}
+		List<ApiAnnotationModel> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			result.add(readFrom(in));
+		}
+		return result;
+	}
+
+	static void writeValue(DataOutput out, Object value) throws IOException {
+		if (value instanceof Boolean) {
+			out.writeByte(TAG_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Byte) {
+			out.writeByte(TAG_BYTE);
+			out.writeByte((Byte) value);
+		} else if (value instanceof Character) {
+			out.writeByte(TAG_CHAR);
+			out.writeChar((Character) value);
+		} else if (value instanceof Short) {
+			out.writeByte(TAG_SHORT);
+			out.writeShort((Short) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(TAG_INT);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(TAG_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Float) {
+			out.writeByte(TAG_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Double) {
+			out.writeByte(TAG_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof String) {
+			out.writeByte(TAG_STRING);
+			out.writeUTF((String) value);
+		} else if (value instanceof Type) {
+			out.writeByte(TAG_CLASS);
+			out.writeUTF(((Type) value).getDescriptor());
+		} else if (value instanceof EnumValue) {
+			EnumValue ev = (EnumValue) value;
+			out.writeByte(TAG_ENUM);
+			out.writeUTF(ev.descriptor);
+			out.writeUTF(ev.value);
+		} else if (value instanceof ApiAnnotationModel) {
+			out.writeByte(TAG_ANNOTATION);
+			((ApiAnnotationModel) value).writeTo(out);
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			out.writeByte(TAG_ARRAY);
+			out.writeInt(list.size());
+			for (Object o : list) {
+				writeValue(out, o);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported value: " + value);
+		}
+	}
+
+	static Object readValue(DataInput in) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+			case TAG_BOOLEAN: {
+				return in.readBoolean();
+			}
+			case TAG_BYTE: {
+				return in.readByte();
+			}
+			case TAG_CHAR: {
+				return in.readChar();
+			}
+			case TAG_SHORT: {
+				return in.readShort();
+			}
+			case TAG_INT: {
+				return in.readInt();
+			}
+			case TAG_LONG: {
+				return in.readLong();
+			}
+			case TAG_FLOAT: {
+				return in.readFloat();
+			}
+			case TAG_DOUBLE: {
+				return in.readDouble();
+			}
+			case TAG_STRING: {
+				return in.readUTF();
+			}
+			case TAG_CLASS: {
+				return Type.getType(in.readUTF());
+			}
+			case TAG_ENUM: {
+				String descriptor = in.readUTF();
+				return new EnumValue(descriptor, in.readUTF());
+			}
+			case TAG_ANNOTATION: {
+				return readFrom(in);
+			}
+			case TAG_ARRAY: {
+				int len = in.readInt();
+				List<Object> result = new ArrayList<>(len);
+				for (int i = 0; i < len; i++) {
+					result.add(readValue(in));
+				}
+				return Collections.unmodifiableList(result);
+			}
+			default: {
+				throw new IOException("Invalid annotation value tag: " + tag);
+			}
+		}
+	}
+}
@@ -0,0 +1,508 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import saker.build.thirdparty.org.objectweb.asm.ClassReader;
+import saker.build.thirdparty.org.objectweb.asm.ClassVisitor;
+import saker.build.thirdparty.org.objectweb.asm.FieldVisitor;
+import saker.build.thirdparty.org.objectweb.asm.MethodVisitor;
+import saker.build.thirdparty.org.objectweb.asm.Opcodes;
+
+/**
+ * Compares two API JARs and reports the changes between them.
+ * <p>
+ * The JARs are expected to contain the API stubs generated by {@link ApiExtractProcessor}, but any class files can be
+ * compared. Only the public and protected declarations are examined, and each change is classified whether it breaks
+ * the binary compatibility with clients compiled against the baseline.
+ * <p>
+ * The classes are read and compared in parallel.
+ */
+public final class ApiDiff {
+	public enum ChangeKind {
+		ADDED,
+		REMOVED,
+		CHANGED;
+	}
+
+	/**
+	 * A change of a class or a member.
+	 */
+	public static final class Change implements Comparable<Change> {
+		protected final String className;
+		protected final String member;
+		protected final ChangeKind kind;
+		protected final boolean incompatible;
+		protected final String description;
+
+		public Change(String className, String member, ChangeKind kind, boolean incompatible, String description) {
+			this.className = className;
+			this.member = member;
+			this.kind = kind;
+			this.incompatible = incompatible;
+			this.description = description;
+		}
+
+		/**
+		 * Gets the binary name of the class.
+		 * 
+		 * @return The class name.
+		 */
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * Gets the member that is changed.
+		 * 
+		 * @return The name of the field or the name and descriptor of the method, or <code>null</code> if the change
+		 *             is for the class itself.
+		 */
+		public String getMember() {
+			return member;
+		}
+
+		public ChangeKind getKind() {
+			return kind;
+		}
+
+		/**
+		 * Checks if the change breaks the binary compatibility.
+		 * 
+		 * @return <code>true</code> if incompatible.
+		 */
+		public boolean isIncompatible() {
+			return incompatible;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		@Override
+		public int compareTo(Change o) {
+			int cmp = className.compareTo(o.className);
+			if (cmp != 0) {
+				return cmp;
+			}
+			if (!Objects.equals(member, o.member)) {
+				if (member == null) {
+					return -1;
+				}
+				if (o.member == null) {
+					return 1;
+				}
+				return member.compareTo(o.member);
+			}
+			cmp = kind.compareTo(o.kind);
+			if (cmp != 0) {
+				return cmp;
+			}
+			return description.compareTo(o.description);
+		}
+
+		@Override
+		public String toString() {
+			return (incompatible ? "INCOMPATIBLE " : "COMPATIBLE ") + kind + " " + className
+					+ (member == null ? "" : "#" + member) + ": " + description;
+		}
+	}
+
+	private ApiDiff() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Compares the classes in the given JARs.
+	 * 
+	 * @param baseline
+	 *            The baseline JAR.
+	 * @param current
+	 *            The current JAR.
+	 * @param threads
+	 *            The number of threads to use. If 1 or less, the comparison is done on the calling thread.
+	 * @return The sorted list of changes.
+	 * @throws IOException
+	 *             If a class file cannot be read.
+	 */
+	public static List<Change> compare(ApiJarReader baseline, ApiJarReader current, int threads) throws IOException {
+		Set<String> classentries = new TreeSet<>();
+		addClassEntries(classentries, baseline);
+		addClassEntries(classentries, current);
+
+		List<Change> result = new ArrayList<>();
+		try {
+			if (threads <= 1) {
+				for (String entry : classentries) {
+					compareClass(result, baseline, current, entry);
+				}
+			} else {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				try {
+					List<ForkJoinTask<List<Change>>> tasks = new ArrayList<>(classentries.size());
+					for (String entry : classentries) {
+						tasks.add(pool.submit(() -> {
+							List<Change> changes = new ArrayList<>();
+							compareClass(changes, baseline, current, entry);
+							return changes;
+						}));
+					}
+					for (ForkJoinTask<List<Change>> t : tasks) {
+						result.addAll(t.join());
+					}
+				} finally {
+					pool.shutdownNow();
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path baselinepath = null;
+		Path currentpath = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			String a = args[i];
+			if ("-threads".equals(a) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (baselinepath == null) {
+				baselinepath = Paths.get(a);
+			} else if (currentpath == null) {
+				currentpath = Paths.get(a);
+			} else {
+				baselinepath = null;
+				break;
+			}
+		}
+		if (baselinepath == null || currentpath == null) {
+			System.err.println(
+					"Usage: " + ApiDiff.class.getName() + " <baseline.jar> <current.jar> [-threads <count>]");
+			System.exit(2);
+			return;
+		}
+		List<Change> changes;
+		try (ApiJarReader baseline = ApiJarReader.open(baselinepath);
+				ApiJarReader current = ApiJarReader.open(currentpath)) {
+			changes = compare(baseline, current, threads);
+		}
+		PrintStream out = System.out;
+		int incompatiblecount = 0;
+		for (Change c : changes) {
+			out.println(c);
+			if (c.isIncompatible()) {
+				++incompatiblecount;
+			}
+		}
+		out.println(changes.size() + " changes, " + incompatiblecount + " incompatible.");
+		if (incompatiblecount > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static void addClassEntries(Set<String> result, ApiJarReader jar) {
+		for (String name : jar.getEntryNames()) {
+			if (name.endsWith(".class") && !name.endsWith("module-info.class")) {
+				result.add(name);
+			}
+		}
+	}
+
+	private static void compareClass(List<Change> result, ApiJarReader baseline, ApiJarReader current,
+			String entryname) {
+		ClassApi oldapi;
+		ClassApi newapi;
+		try {
+			oldapi = ClassApi.read(baseline.getBytes(entryname));
+			newapi = ClassApi.read(current.getBytes(entryname));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read class: " + entryname, e);
+		}
+		String classname = (oldapi != null ? oldapi : newapi).name.replace('/', '.');
+		if (oldapi == null || !oldapi.isApi()) {
+			if (newapi != null && newapi.isApi()) {
+				result.add(new Change(classname, null, ChangeKind.ADDED, false, "class added"));
+			}
+			return;
+		}
+		if (newapi == null || !newapi.isApi()) {
+			result.add(new Change(classname, null, ChangeKind.REMOVED, true,
+					newapi == null ? "class removed" : "class is no longer accessible"));
+			return;
+		}
+		compareClassDeclaration(result, classname, oldapi, newapi);
+		compareFields(result, classname, oldapi, newapi);
+		compareMethods(result, classname, oldapi, newapi);
+	}
+
+	private static void compareClassDeclaration(List<Change> result, String classname, ClassApi oldapi,
+			ClassApi newapi) {
+		int oldacc = oldapi.access;
+		int newacc = newapi.access;
+		compareAccessLevel(result, classname, null, oldacc, newacc);
+		if (((oldacc ^ newacc) & (Opcodes.ACC_INTERFACE | Opcodes.ACC_ANNOTATION | Opcodes.ACC_ENUM)) != 0) {
+			result.add(new Change(classname, null, ChangeKind.CHANGED, true,
+					"kind changed: " + getKindName(oldacc) + " -> " + getKindName(newacc)));
+		}
+		compareFlag(result, classname, null, oldacc, newacc, Opcodes.ACC_STATIC, "static", true, true);
+		compareFlag(result, classname, null, oldacc, newacc, Opcodes.ACC_FINAL, "final", true, false);
+		if ((oldacc & Opcodes.ACC_INTERFACE) == 0) {
+			compareFlag(result, classname, null, oldacc, newacc, Opcodes.ACC_ABSTRACT, "abstract", true, false);
+		}
+		if (!Objects.equals(oldapi.superName, newapi.superName)) {
+			result.add(new Change(classname, null, ChangeKind.CHANGED, true,
+					"superclass changed: " + oldapi.superName + " -> " + newapi.superName));
+		}
+		for (String itf : oldapi.interfaces) {
+			if (!newapi.interfaces.contains(itf)) {
+				result.add(new Change(classname, null, ChangeKind.REMOVED, true, "interface removed: " + itf));
+			}
+		}
+		for (String itf : newapi.interfaces) {
+			if (!oldapi.interfaces.contains(itf)) {
+				result.add(new Change(classname, null, ChangeKind.ADDED, false, "interface added: " + itf));
+			}
+		}
+	}
+
+	private static void compareFields(List<Change> result, String classname, ClassApi oldapi, ClassApi newapi) {
+		for (Entry<String, FieldApi> entry : oldapi.fields.entrySet()) {
+			String name = entry.getKey();
+			FieldApi oldf = entry.getValue();
+			FieldApi newf = newapi.fields.get(name);
+			if (newf == null) {
+				result.add(new Change(classname, name, ChangeKind.REMOVED, true, "field removed"));
+				continue;
+			}
+			if (!oldf.descriptor.equals(newf.descriptor)) {
+				result.add(new Change(classname, name, ChangeKind.CHANGED, true,
+						"field type changed: " + oldf.descriptor + " -> " + newf.descriptor));
+			}
+			compareAccessLevel(result, classname, name, oldf.access, newf.access);
+			compareFlag(result, classname, name, oldf.access, newf.access, Opcodes.ACC_STATIC, "static", true, true);
+			compareFlag(result, classname, name, oldf.access, newf.access, Opcodes.ACC_FINAL, "final", true, false);
+			if (oldf.constantValue != null) {
+				//the constant values are inlined by the compiler into the client code
+				if (newf.constantValue == null) {
+					result.add(new Change(classname, name, ChangeKind.REMOVED, true,
+							"constant value removed: " + oldf.constantValue));
+				} else if (!oldf.constantValue.equals(newf.constantValue)) {
+					result.add(new Change(classname, name, ChangeKind.CHANGED, true,
+							"constant value changed: " + oldf.constantValue + " -> " + newf.constantValue));
+				}
+			} else if (newf.constantValue != null) {
+				result.add(new Change(classname, name, ChangeKind.ADDED, false,
+						"constant value added: " + newf.constantValue));
+			}
+		}
+		for (String name : newapi.fields.keySet()) {
+			if (!oldapi.fields.containsKey(name)) {
+				result.add(new Change(classname, name, ChangeKind.ADDED, false, "field added"));
+			}
+		}
+	}
+
+	private static void compareMethods(List<Change> result, String classname, ClassApi oldapi, ClassApi newapi) {
+		for (Entry<String, Integer> entry : oldapi.methods.entrySet()) {
+			String method = entry.getKey();
+			Integer newacc = newapi.methods.get(method);
+			if (newacc == null) {
+				result.add(new Change(classname, method, ChangeKind.REMOVED, true, "method removed"));
+				continue;
+			}
+			int oldacc = entry.getValue();
+			compareAccessLevel(result, classname, method, oldacc, newacc);
+			compareFlag(result, classname, method, oldacc, newacc, Opcodes.ACC_STATIC, "static", true, true);
+			compareFlag(result, classname, method, oldacc, newacc, Opcodes.ACC_FINAL, "final", true, false);
+			compareFlag(result, classname, method, oldacc, newacc, Opcodes.ACC_ABSTRACT, "abstract", true, false);
+		}
+		for (Entry<String, Integer> entry : newapi.methods.entrySet()) {
+			String method = entry.getKey();
+			if (!oldapi.methods.containsKey(method)) {
+				result.add(new Change(classname, method, ChangeKind.ADDED, false,
+						((entry.getValue() & Opcodes.ACC_ABSTRACT) != 0) ? "abstract method added" : "method added"));
+			}
+		}
+	}
+
+	private static void compareAccessLevel(List<Change> result, String classname, String member, int oldacc,
+			int newacc) {
+		int oldlevel = getAccessLevel(oldacc);
+		int newlevel = getAccessLevel(newacc);
+		if (oldlevel == newlevel) {
+			return;
+		}
+		result.add(new Change(classname, member, ChangeKind.CHANGED, newlevel < oldlevel,
+				"access changed: " + getAccessName(oldacc) + " -> " + getAccessName(newacc)));
+	}
+
+	private static void compareFlag(List<Change> result, String classname, String member, int oldacc, int newacc,
+			int flag, String flagname, boolean addincompatible, boolean removeincompatible) {
+		boolean had = (oldacc & flag) != 0;
+		boolean has = (newacc & flag) != 0;
+		if (had == has) {
+			return;
+		}
+		if (has) {
+			result.add(new Change(classname, member, ChangeKind.CHANGED, addincompatible, "became " + flagname));
+		} else {
+			result.add(new Change(classname, member, ChangeKind.CHANGED, removeincompatible, "no longer " + flagname));
+		}
+	}
+
+	private static int getAccessLevel(int access) {
+		if ((access & Opcodes.ACC_PUBLIC) != 0) {
+			return 3;
+		}
+		if ((access & Opcodes.ACC_PROTECTED) != 0) {
+			return 2;
+		}
+		if ((access & Opcodes.ACC_PRIVATE) != 0) {
+			return 0;
+		}
+		return 1;
+	}
+
+	private static String getAccessName(int access) {
+		switch (getAccessLevel(access)) {
+			case 3: {
+				return "public";
+			}
+			case 2: {
+				return "protected";
+			}
+			case 0: {
+				return "private";
+			}
+			default: {
+				return "package-private";
+			}
+		}
+	}
+
+	private static String getKindName(int access) {
+		if ((access & Opcodes.ACC_ANNOTATION) != 0) {
+			return "annotation";
+		}
+		if ((access & Opcodes.ACC_INTERFACE) != 0) {
+			return "interface";
+		}
+		if ((access & Opcodes.ACC_ENUM) != 0) {
+			return "enum";
+		}
+		return "class";
+	}
+
+	private static boolean isApiAccess(int access) {
+		return (access & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) != 0 && (access & Opcodes.ACC_SYNTHETIC) == 0;
+	}
+
+	private static final class FieldApi {
+		protected final int access;
+		protected final String descriptor;
+		protected final Object constantValue;
+
+		public FieldApi(int access, String descriptor, Object constantValue) {
+			this.access = access;
+			this.descriptor = descriptor;
+			this.constantValue = constantValue;
+		}
+	}
+
+	private static final class ClassApi extends ClassVisitor {
+		protected String name;
+		protected int access;
+		protected String superName;
+		protected Set<String> interfaces = Collections.emptySet();
+		protected final Map<String, FieldApi> fields = new TreeMap<>();
+		protected final Map<String, Integer> methods = new TreeMap<>();
+
+		public ClassApi() {
+			super(Opcodes.ASM9);
+		}
+
+		public static ClassApi read(byte[] bytes) {
+			if (bytes == null) {
+				return null;
+			}
+			ClassApi result = new ClassApi();
+			new ClassReader(bytes).accept(result,
+					ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			return result;
+		}
+
+		public boolean isApi() {
+			return isApiAccess(access);
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName,
+				String[] interfaces) {
+			this.name = name;
+			this.access = access;
+			this.superName = superName;
+			if (interfaces != null && interfaces.length > 0) {
+				this.interfaces = new LinkedHashSet<>(Arrays.asList(interfaces));
+			}
+		}
+
+		@Override
+		public void visitInnerClass(String name, String outerName, String innerName, int access) {
+			if (name.equals(this.name)) {
+				//the inner class attribute contains the declared access flags of nested classes
+				this.access = access | (this.access & Opcodes.ACC_DEPRECATED);
+			}
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+			if (isApiAccess(access)) {
+				fields.put(name, new FieldApi(access, descriptor, value));
+			}
+			return null;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+				String[] exceptions) {
+			if (isApiAccess(access) && !"<clinit>".equals(name)) {
+				methods.put(name + descriptor, access);
+			}
+			return null;
+		}
+	}
+}
@@ -15,24 +15,43 @@
  */
 package saker.apiextract.processor;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
-import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.Collection;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
 import javax.annotation.processing.Completion;
 import javax.annotation.processing.Filer;
@@ -44,12 +63,10 @@ import javax.lang.model.AnnotatedConstruct;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.AnnotationValue;
-import javax.lang.model.element.AnnotationValueVisitor;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
-import javax.lang.model.element.Name;
 import javax.lang.model.element.NestingKind;
 import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.QualifiedNameable;
@@ -58,7 +75,6 @@ import javax.lang.model.element.TypeParameterElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.ArrayType;
 import javax.lang.model.type.DeclaredType;
-import javax.lang.model.type.ExecutableType;
 import javax.lang.model.type.IntersectionType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
@@ -75,13 +91,7 @@ import javax.tools.StandardLocation;
 import saker.apiextract.api.DefaultableBoolean;
 import saker.apiextract.api.ExcludeApi;
 import saker.apiextract.api.PublicApi;
-import saker.build.thirdparty.org.objectweb.asm.AnnotationVisitor;
-import saker.build.thirdparty.org.objectweb.asm.ClassVisitor;
-import saker.build.thirdparty.org.objectweb.asm.ClassWriter;
-import saker.build.thirdparty.org.objectweb.asm.FieldVisitor;
-import saker.build.thirdparty.org.objectweb.asm.MethodVisitor;
 import saker.build.thirdparty.org.objectweb.asm.Opcodes;
-import saker.build.thirdparty.org.objectweb.asm.Type;
 import saker.build.thirdparty.org.objectweb.asm.signature.SignatureVisitor;
 import saker.build.thirdparty.org.objectweb.asm.signature.SignatureWriter;
 
@@ -91,6 +101,141 @@ public class ApiExtractProcessor implements Processor {
 	public static final String OPTION_WARN_DOC = "saker.apiextract.warn_doc";
 	public static final String OPTION_WARN_DOC_BASE_PACKAGES = "saker.apiextract.warn_doc_base_packages";
 	public static final String OPTION_INCLUDE_MEMBERS_DEFAULT = "saker.apiextract.include_members_default";
+	/**
+	 * The number of threads to use for generating the stub class files.
+	 * <p>
+	 * If greater than 1, the bytecode of the stubs is generated on a fork-join pool with the given parallelism. If 0,
+	 * the number of available processors is used. Defaults to 1, which means that the stubs are generated on the
+	 * processing thread.
+	 * <p>
+	 * The output files are written on the processing thread in all cases.
+	 */
+	public static final String OPTION_THREADS = "saker.apiextract.threads";
+	/**
+	 * Boolean option to enable incremental stub generation.
+	 * <p>
+	 * If enabled, an index of the API fingerprints of the generated classes is written to the output location. In the
+	 * next compilation the stubs which have the same fingerprint as in the index are not regenerated, and the stubs of
+	 * the classes that are no longer part of the API are deleted.
+	 */
+	public static final String OPTION_INCREMENTAL = "saker.apiextract.incremental";
+
+	/**
+	 * Boolean option to only write the output files which have changed.
+	 * <p>
+	 * If enabled, the generated bytes are compared to the contents of the existing output file, and the file is not
+	 * rewritten if they are the same. This keeps the modification time of the unchanged files.
+	 */
+	public static final String OPTION_WRITE_IF_CHANGED = "saker.apiextract.write_if_changed";
+
+	/**
+	 * Boolean option to write the stub class files on a dedicated writer thread.
+	 * <p>
+	 * If enabled, the output files are still created through the {@link Filer} on the processing thread, but their
+	 * contents are written by a background thread, so the stub generation can continue while the previous stubs are
+	 * written. Useful if the output is on a slow or network backed file system.
+	 * 
+	 * @see WriteBehindQueue
+	 */
+	public static final String OPTION_WRITE_BEHIND = "saker.apiextract.write_behind";
+
+	/**
+	 * The name of the JAR file to write the API stubs to, instead of writing them as separate class files.
+	 * <p>
+	 * The JAR is written to the root of the output location. The entries are sorted, have fixed timestamps, and are
+	 * compressed using the threads specified by {@link #OPTION_THREADS}.
+	 */
+	public static final String OPTION_OUTPUT_JAR = "saker.apiextract.output_jar";
+
+	/**
+	 * The name of the file to write the ABI hashes of the API to.
+	 * <p>
+	 * The file is written to the root of the output location. It contains a hash of the whole API, and a hash for each
+	 * package, in the {@link java.util.Properties} format. The hashes only change if the extracted API changes, so
+	 * they can be used to decide whether the dependent code needs to be recompiled.
+	 */
+	public static final String OPTION_ABI_HASH = "saker.apiextract.abi_hash";
+
+	/**
+	 * The path of the file to write the processing statistics to.
+	 * <p>
+	 * The statistics are written in JSON format. They contain the time spent in the processing phases, the number of
+	 * included elements by kind, the size of the output, and the types that took the longest to generate.
+	 */
+	public static final String OPTION_STATS = "saker.apiextract.stats";
+
+	/**
+	 * Boolean option to generate the stubs in the processing rounds as soon as their contents are final.
+	 * <p>
+	 * If enabled, the stub of an included type is emitted in the round when it can no longer be changed by the
+	 * elements of the later rounds. That is, if its signatures don't reference unresolved types, and all of its
+	 * accessible nested types are already included. The remaining stubs are generated in the last round. This reduces
+	 * the work done at the end of the compilation if other processors generate sources in multiple rounds.
+	 */
+	public static final String OPTION_STREAMING = "saker.apiextract.streaming";
+
+	/**
+	 * The body of the non-abstract methods in the stubs.
+	 * <p>
+	 * <code>throw</code> (the default) generates methods that throw an {@link UnsupportedOperationException}.
+	 * <code>null</code> generates methods that throw <code>null</code>, which results in smaller class files.
+	 */
+	public static final String OPTION_STUB_BODY = "saker.apiextract.stub_body";
+
+	/**
+	 * Boolean option to write the parameter names of the methods to the stubs.
+	 * <p>
+	 * Defaults to <code>true</code>. If disabled, the <code>MethodParameters</code> attribute is not written.
+	 */
+	public static final String OPTION_PARAMETER_NAMES = "saker.apiextract.parameter_names";
+
+	/**
+	 * The name of the file to write the inclusion index to.
+	 * <p>
+	 * The file is written to the root of the output location. It lists the included types and members, and it can be
+	 * used with {@link ApiStubExtractor} to generate the stubs from the compiled class files without running the
+	 * annotation processing again.
+	 */
+	public static final String OPTION_INCLUSION_INDEX = "saker.apiextract.inclusion_index";
+
+	/**
+	 * Boolean option to cache the metadata of the classpath types between the compilations in the same JVM.
+	 * <p>
+	 * Useful if the compiler runs in a long-lived process. The metadata is cached for each classpath entry and is
+	 * evicted when the contents of the entry change. Requires a compiler running on Java 18 or later, the option has
+	 * no effect otherwise.
+	 * 
+	 * @see ClasspathTypeCache
+	 */
+	public static final String OPTION_CLASSPATH_CACHE = "saker.apiextract.classpath_cache";
+
+	/**
+	 * The heap usage budget in megabytes over which the pending type models are spilled to the disk.
+	 * <p>
+	 * If the used heap of the JVM exceeds the budget while the type models are created, the models are written to a
+	 * temporary file, and they are read back one by one when the stubs are emitted. By default, the models are kept in
+	 * memory.
+	 * 
+	 * @see SpillingTypeModelQueue
+	 */
+	public static final String OPTION_MAX_HEAP_MB = "saker.apiextract.max_heap_mb";
+
+	/**
+	 * The number of stubs that may be generated ahead of the one being written, per generator thread.
+	 */
+	private static final int PENDING_STUBS_PER_THREAD = 16;
+
+	/**
+	 * The maximum number of stubs that are waiting to be written by the writer thread.
+	 */
+	private static final int WRITE_BEHIND_CAPACITY = 256;
+
+	/**
+	 * The maximum size of the buffer used to compare existing output files to the new contents.
+	 */
+	private static final int COMPARISON_BUFFER_SIZE = 64 * 1024;
+
+	private static final String FINGERPRINT_INDEX_RESOURCE_NAME = "saker.apiextract.index";
 
 	private static final String EXCLUDEAPI_CLASSNAME = ExcludeApi.class.getName();
 	private static final String PUBLICAPI_CLASSNAME = PublicApi.class.getName();
@@ -101,20 +246,59 @@ public class ApiExtractProcessor implements Processor {
 	private Messager messager;
 	private Elements elements;
 	private Types types;
+	private SymbolCache symbols;
 
 	private TypeElement publicApiType;
 	private TypeElement excludeApiType;
 
-	private Map<Element, InclusionState> publicAnnotatedElements = new HashMap<>();
-	private Set<Element> excludedAnnotatedElements = new HashSet<>();
+	//linked collections to keep the processing order independent of the element hash codes
+	private Set<Element> publicAnnotatedElements = new LinkedHashSet<>();
+	private Set<Element> excludedAnnotatedElements = new LinkedHashSet<>();
 
 	private Set<String> basePackageNames = new TreeSet<>();
 	private Set<String> excludePackageNames = new TreeSet<>();
 	private Set<String> docWarnBasePackageNames = new TreeSet<>();
+	private PackageMatcher basePackageMatcher;
+	private PackageMatcher docWarnPackageMatcher;
 	private boolean warnNoDocumentation = false;
 
 	private boolean defaultIncludeMembers = true;
 
+	private int threadCount = 1;
+	private long maxHeapBytes = Long.MAX_VALUE;
+	private boolean incremental = false;
+	private boolean writeIfChanged = false;
+	private boolean writeBehind = false;
+	private String outputJarName;
+	private String abiHashName;
+	private String inclusionIndexName;
+	private Path statsPath;
+	private ProcessingStatistics statistics;
+
+	private int roundNumber;
+	private int roundAnnotatedCount;
+
+	private boolean streaming = false;
+	private ApiStubGenerator.BodyPolicy stubBodyPolicy = ApiStubGenerator.BodyPolicy.THROW;
+	private boolean includeParameterNames = true;
+	/**
+	 * The binary names of the types which have been already emitted.
+	 */
+	private final Set<String> emittedTypeNames = new TreeSet<>();
+	/**
+	 * The fingerprints of the emitted types, if the fingerprints are necessary for the output.
+	 */
+	private ApiFingerprintIndex fingerprintIndex;
+	private ApiFingerprintIndex previousFingerprintIndex;
+	private boolean previousFingerprintIndexRead;
+	private List<ApiJarWriter.CompressedEntry> jarEntries;
+	private Set<Element> jarOriginatingElements;
+	private ApiInclusionIndex inclusionIndex;
+
+	private AnnotationModelFactory annotationModels;
+	private ClasspathTypeCache classpathTypeCache;
+	private OverrideIndex overrideIndex;
+
 	@Override
 	public Set<String> getSupportedOptions() {
 		Set<String> result = new TreeSet<>();
@@ -123,6 +307,19 @@ public class ApiExtractProcessor implements Processor {
 		result.add(OPTION_WARN_DOC);
 		result.add(OPTION_WARN_DOC_BASE_PACKAGES);
 		result.add(OPTION_INCLUDE_MEMBERS_DEFAULT);
+		result.add(OPTION_THREADS);
+		result.add(OPTION_INCREMENTAL);
+		result.add(OPTION_WRITE_IF_CHANGED);
+		result.add(OPTION_WRITE_BEHIND);
+		result.add(OPTION_OUTPUT_JAR);
+		result.add(OPTION_ABI_HASH);
+		result.add(OPTION_STATS);
+		result.add(OPTION_STREAMING);
+		result.add(OPTION_STUB_BODY);
+		result.add(OPTION_PARAMETER_NAMES);
+		result.add(OPTION_INCLUSION_INDEX);
+		result.add(OPTION_CLASSPATH_CACHE);
+		result.add(OPTION_MAX_HEAP_MB);
 		return result;
 	}
 
@@ -145,6 +342,8 @@ public class ApiExtractProcessor implements Processor {
 		messager = processingEnv.getMessager();
 		elements = processingEnv.getElementUtils();
 		types = processingEnv.getTypeUtils();
+		symbols = new SymbolCache(elements);
+		overrideIndex = new OverrideIndex(elements, types);
 
 		Map<String, String> procoptions = processingEnv.getOptions();
 		String basepackagesopt = procoptions.get(OPTION_BASE_PACKAGES);
@@ -172,6 +371,62 @@ public class ApiExtractProcessor implements Processor {
 		if (incmemdefprop != null) {
 			defaultIncludeMembers = Boolean.parseBoolean(incmemdefprop);
 		}
+		String threadsopt = procoptions.get(OPTION_THREADS);
+		if (threadsopt != null) {
+			try {
+				threadCount = Integer.parseInt(threadsopt.trim());
+				if (threadCount < 0) {
+					throw new NumberFormatException("negative");
+				}
+				if (threadCount == 0) {
+					threadCount = Runtime.getRuntime().availableProcessors();
+				}
+			} catch (NumberFormatException e) {
+				threadCount = 1;
+				messager.printMessage(Diagnostic.Kind.ERROR,
+						"Invalid value for option " + OPTION_THREADS + ": " + threadsopt);
+			}
+		}
+		String maxheapopt = procoptions.get(OPTION_MAX_HEAP_MB);
+		if (maxheapopt != null) {
+			try {
+				long maxheapmb = Long.parseLong(maxheapopt.trim());
+				if (maxheapmb <= 0) {
+					throw new NumberFormatException("not positive");
+				}
+				maxHeapBytes = maxheapmb * 1024 * 1024;
+			} catch (NumberFormatException e) {
+				messager.printMessage(Diagnostic.Kind.ERROR,
+						"Invalid value for option " + OPTION_MAX_HEAP_MB + ": " + maxheapopt);
+			}
+		}
+		incremental = Boolean.parseBoolean(procoptions.get(OPTION_INCREMENTAL));
+		streaming = Boolean.parseBoolean(procoptions.get(OPTION_STREAMING));
+		writeIfChanged = Boolean.parseBoolean(procoptions.get(OPTION_WRITE_IF_CHANGED));
+		writeBehind = Boolean.parseBoolean(procoptions.get(OPTION_WRITE_BEHIND));
+		String outputjaropt = procoptions.get(OPTION_OUTPUT_JAR);
+		if (outputjaropt != null && !outputjaropt.trim().isEmpty()) {
+			outputJarName = outputjaropt.trim();
+		}
+		String abihashopt = procoptions.get(OPTION_ABI_HASH);
+		if (abihashopt != null && !abihashopt.trim().isEmpty()) {
+			abiHashName = abihashopt.trim();
+		}
+		String inclusionindexopt = procoptions.get(OPTION_INCLUSION_INDEX);
+		if (inclusionindexopt != null && !inclusionindexopt.trim().isEmpty()) {
+			inclusionIndexName = inclusionindexopt.trim();
+			inclusionIndex = new ApiInclusionIndex();
+		}
+		String statsopt = procoptions.get(OPTION_STATS);
+		if (statsopt != null && !statsopt.trim().isEmpty()) {
+			try {
+				statsPath = Paths.get(statsopt.trim());
+				statistics = new ProcessingStatistics();
+			} catch (InvalidPathException e) {
+				messager.printMessage(Diagnostic.Kind.ERROR,
+						"Invalid value for option " + OPTION_STATS + ": " + statsopt);
+			}
+		}
 		if (warnNoDocumentation) {
 			if (docwarnpackages == null) {
 				docWarnBasePackageNames.addAll(basePackageNames);
@@ -183,6 +438,32 @@ public class ApiExtractProcessor implements Processor {
 				}
 			}
 		}
+		basePackageMatcher = new PackageMatcher(basePackageNames, excludePackageNames);
+		docWarnPackageMatcher = new PackageMatcher(docWarnBasePackageNames, Collections.emptySet());
+		String stubbodyopt = procoptions.get(OPTION_STUB_BODY);
+		if (stubbodyopt != null) {
+			try {
+				stubBodyPolicy = ApiStubGenerator.BodyPolicy.valueOf(stubbodyopt.trim().toUpperCase(Locale.ENGLISH));
+			} catch (IllegalArgumentException e) {
+				messager.printMessage(Diagnostic.Kind.ERROR,
+						"Invalid value for option " + OPTION_STUB_BODY + ": " + stubbodyopt);
+			}
+		}
+		String paramnamesopt = procoptions.get(OPTION_PARAMETER_NAMES);
+		if (paramnamesopt != null) {
+			includeParameterNames = Boolean.parseBoolean(paramnamesopt);
+		}
+		if (Boolean.parseBoolean(procoptions.get(OPTION_CLASSPATH_CACHE))) {
+			classpathTypeCache = new ClasspathTypeCache(elements, this::createTypeMetadata);
+		}
+		annotationModels = new AnnotationModelFactory(symbols, classpathTypeCache);
+		if (incremental || abiHashName != null) {
+			fingerprintIndex = new ApiFingerprintIndex(getGeneratorConfiguration());
+		}
+		if (outputJarName != null) {
+			jarEntries = new ArrayList<>();
+			jarOriginatingElements = new LinkedHashSet<>();
+		}
 	}
 
 	private static boolean isPublicOrProtected(Element elem) {
@@ -207,14 +488,14 @@ public class ApiExtractProcessor implements Processor {
 	}
 
 	private boolean isInBasePackages(Element elem) {
-		return isInPackages(elem, basePackageNames) && !isInPackages(elem, excludePackageNames);
+		return isInPackages(elem, basePackageMatcher);
 	}
 
 	private boolean isInBasePackages(QualifiedNameable qn) {
-		return isInPackages(qn, basePackageNames) && !isInPackages(qn, excludePackageNames);
+		return basePackageMatcher.matches(qn);
 	}
 
-	private static boolean isInPackages(Element elem, Set<String> basepackagenames) {
+	static boolean isInPackages(Element elem, PackageMatcher matcher) {
 		while (elem != null) {
 			switch (elem.getKind()) {
 				case ANNOTATION_TYPE:
@@ -222,7 +503,7 @@ public class ApiExtractProcessor implements Processor {
 				case ENUM:
 				case INTERFACE:
 				case PACKAGE: {
-					return isInPackages((QualifiedNameable) elem, basepackagenames);
+					return matcher.matches((QualifiedNameable) elem);
 				}
 				default: {
 					elem = elem.getEnclosingElement();
@@ -233,19 +514,6 @@ public class ApiExtractProcessor implements Processor {
 		return false;
 	}
 
-	private static boolean isInPackages(QualifiedNameable qn, Set<String> basepackagenames) {
-		String pname = qn.toString();
-		for (String bp : basepackagenames) {
-			if (pname.equals(bp)) {
-				return true;
-			}
-			if (pname.length() > bp.length() && pname.charAt(bp.length()) == '.' && pname.startsWith(bp)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
 	private Element getExcludedEnclosingElement(Element elem) {
 		for (Element p = elem; (p = p.getEnclosingElement()) != null;) {
 			if (excludedAnnotatedElements.contains(p)) {
@@ -257,7 +525,7 @@ public class ApiExtractProcessor implements Processor {
 
 	private Element getPublicEnclosingElement(Element elem) {
 		for (Element p = elem; (p = p.getEnclosingElement()) != null;) {
-			if (publicAnnotatedElements.containsKey(p)) {
+			if (publicAnnotatedElements.contains(p)) {
 				return p;
 			}
 		}
@@ -266,7 +534,7 @@ public class ApiExtractProcessor implements Processor {
 
 	private Element getClosestPublicEnclosingElement(Element elem) {
 		for (Element p = elem; p != null; p = p.getEnclosingElement()) {
-			if (publicAnnotatedElements.containsKey(p)) {
+			if (publicAnnotatedElements.contains(p)) {
 				return p;
 			}
 		}
@@ -289,120 +557,13 @@ public class ApiExtractProcessor implements Processor {
 		return true;
 	}
 
-	private final class MethodAnnotationDefaultValueAnnotationValueVisitor
-			implements AnnotationValueVisitor<Void, AnnotationVisitor> {
-		private String name;
-
-		public MethodAnnotationDefaultValueAnnotationValueVisitor(String name) {
-			this.name = name;
-		}
-
-		@Override
-		public Void visit(AnnotationValue av, AnnotationVisitor p) {
-			return av.accept(this, p);
-		}
-
-		@Override
-		public Void visit(AnnotationValue av) {
-			throw new UnsupportedOperationException();
-		}
-
-		@Override
-		public Void visitBoolean(boolean b, AnnotationVisitor p) {
-			p.visit(name, b);
-			return null;
-		}
-
-		@Override
-		public Void visitByte(byte b, AnnotationVisitor p) {
-			p.visit(name, b);
-			return null;
-		}
-
-		@Override
-		public Void visitChar(char c, AnnotationVisitor p) {
-			p.visit(name, c);
-			return null;
-		}
-
-		@Override
-		public Void visitDouble(double d, AnnotationVisitor p) {
-			p.visit(name, d);
-			return null;
-		}
-
-		@Override
-		public Void visitFloat(float f, AnnotationVisitor p) {
-			p.visit(name, f);
-			return null;
-		}
-
-		@Override
-		public Void visitInt(int i, AnnotationVisitor p) {
-			p.visit(name, i);
-			return null;
-		}
-
-		@Override
-		public Void visitLong(long i, AnnotationVisitor p) {
-			p.visit(name, i);
-			return null;
-		}
-
-		@Override
-		public Void visitShort(short s, AnnotationVisitor p) {
-			p.visit(name, s);
-			return null;
-		}
-
-		@Override
-		public Void visitString(String s, AnnotationVisitor p) {
-			p.visit(name, s);
-			return null;
-		}
-
-		@Override
-		public Void visitType(TypeMirror t, AnnotationVisitor p) {
-			p.visit(name, Type.getObjectType(getInternalName(t)));
-			return null;
-		}
-
-		@Override
-		public Void visitEnumConstant(VariableElement c, AnnotationVisitor p) {
-			TypeMirror ctype = c.asType();
-			Name csimplename = c.getSimpleName();
-			p.visitEnum(name, getDescriptor(ctype), csimplename.toString());
-			return null;
-		}
-
-		@Override
-		public Void visitAnnotation(AnnotationMirror a, AnnotationVisitor p) {
-			AnnotationVisitor subvisitor = p.visitAnnotation(name, getDescriptor(a.getAnnotationType()));
-			if (subvisitor != null) {
-				for (Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : a.getElementValues()
-						.entrySet()) {
-					visitAnnotationVisitor(entry.getKey(), subvisitor, entry.getValue());
-				}
-				subvisitor.visitEnd();
-			}
-			return null;
-		}
+	private static final class PendingStub {
+		protected final String binaryName;
+		protected final ForkJoinTask<byte[]> bytesTask;
 
-		@Override
-		public Void visitArray(List<? extends AnnotationValue> vals, AnnotationVisitor p) {
-			AnnotationVisitor elemvisitor = p.visitArray(name);
-			if (elemvisitor != null) {
-				for (AnnotationValue av : vals) {
-					visitAnnotationVisitor(null, elemvisitor, av);
-				}
-				elemvisitor.visitEnd();
-			}
-			return null;
-		}
-
-		@Override
-		public Void visitUnknown(AnnotationValue av, AnnotationVisitor p) {
-			throw new UnsupportedOperationException("Unknown annotation value: " + av);
+		public PendingStub(String binaryName, ForkJoinTask<byte[]> bytesTask) {
+			this.binaryName = binaryName;
+			this.bytesTask = bytesTask;
 		}
 	}
 
@@ -414,10 +575,19 @@ public class ApiExtractProcessor implements Processor {
 
 		protected boolean kindChecked;
 
-		protected Collection<Element> dependentElements;
-
-		public InclusionState(Element elem, Collection<? extends Element> dependentElements) {
-			this.dependentElements = new HashSet<>(dependentElements);
+		/**
+		 * The element that first caused this element to be included, or <code>null</code> for the public API annotated
+		 * elements.
+		 */
+		protected final Element includer;
+		/**
+		 * The other elements that directly include this element. Allocated lazily, as most elements are included only
+		 * once.
+		 */
+		protected Set<Element> additionalIncluders;
+
+		public InclusionState(Element elem, Element includer) {
+			this.includer = includer;
 			Set<Modifier> inclusionmodifiers;
 			switch (elem.getKind()) {
 				case ANNOTATION_TYPE: {
@@ -473,7 +643,17 @@ public class ApiExtractProcessor implements Processor {
 		}
 
 		public InclusionState(Element elem) {
-			this(elem, Collections.singletonList(elem));
+			this(elem, null);
+		}
+
+		public void addIncluder(Element elem) {
+			if (elem == includer) {
+				return;
+			}
+			if (additionalIncluders == null) {
+				additionalIncluders = new LinkedHashSet<>();
+			}
+			additionalIncluders.add(elem);
 		}
 
 		public boolean shouldIncludeMember(Element elem) {
@@ -487,11 +667,46 @@ public class ApiExtractProcessor implements Processor {
 		}
 	}
 
+	private static final class RelatedWork {
+		protected final Element element;
+		protected final TypeMirror type;
+		protected final Element includer;
+
+		public RelatedWork(Element element, Element includer) {
+			this.element = element;
+			this.type = null;
+			this.includer = includer;
+		}
+
+		public RelatedWork(TypeMirror type, Element includer) {
+			this.element = null;
+			this.type = type;
+			this.includer = includer;
+		}
+	}
+
 	private static final Set<Modifier> MODIFIERS_PUBLIC = Collections.singleton(Modifier.PUBLIC);
 	private static final Set<Modifier> MODIFIERS_PUBLIC_PROTECTED = EnumSet.of(Modifier.PUBLIC, Modifier.PROTECTED);
 
 	@Override
 	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		FlightRecorderEvents.defineIfRecording();
+		Object roundevent = FlightRecorderEvents.ROUND.begin();
+		++roundNumber;
+		roundAnnotatedCount = 0;
+		try {
+			return processRound(roundEnv);
+		} finally {
+			if (roundevent != null) {
+				FlightRecorderEvents.ROUND.commit(roundevent, roundNumber, roundAnnotatedCount);
+			}
+		}
+	}
+
+	private boolean processRound(RoundEnvironment roundEnv) {
+		if (statistics != null) {
+			statistics.startPhase(ProcessingStatistics.Phase.DISCOVERY);
+		}
 		if (publicApiType == null) {
 			publicApiType = elements.getTypeElement(PUBLICAPI_CLASSNAME);
 			excludeApiType = elements.getTypeElement(EXCLUDEAPI_CLASSNAME);
@@ -500,6 +715,7 @@ public class ApiExtractProcessor implements Processor {
 			Set<? extends Element> publicelems = roundEnv.getElementsAnnotatedWith(publicApiType);
 			Set<? extends Element> excludeelems = roundEnv.getElementsAnnotatedWith(excludeApiType);
 			excludedAnnotatedElements.addAll(excludeelems);
+			roundAnnotatedCount = publicelems.size() + excludeelems.size();
 
 			for (Element pubelem : publicelems) {
 				if (!isInBasePackages(pubelem)) {
@@ -525,7 +741,7 @@ public class ApiExtractProcessor implements Processor {
 						break;
 					}
 				}
-				publicAnnotatedElements.put(pubelem, new InclusionState(pubelem));
+				publicAnnotatedElements.add(pubelem);
 				if (excludeelems.contains(pubelem)) {
 					messager.printMessage(Diagnostic.Kind.ERROR,
 							"Conflicting annotations with " + EXCLUDEAPI_CLASSNAME + " and " + PUBLICAPI_CLASSNAME,
@@ -533,10 +749,13 @@ public class ApiExtractProcessor implements Processor {
 				}
 			}
 		}
+		if (statistics != null) {
+			statistics.endPhase(ProcessingStatistics.Phase.DISCOVERY);
+		}
 		if (roundEnv.processingOver()) {
-			publicAnnotatedElements = Collections.unmodifiableMap(publicAnnotatedElements);
+			publicAnnotatedElements = Collections.unmodifiableSet(publicAnnotatedElements);
 			excludedAnnotatedElements = Collections.unmodifiableSet(excludedAnnotatedElements);
-			for (Element pubelem : publicAnnotatedElements.keySet()) {
+			for (Element pubelem : publicAnnotatedElements) {
 				Element excenclosing = getExcludedEnclosingElement(pubelem);
 				if (excenclosing != null) {
 					messager.printMessage(Diagnostic.Kind.ERROR,
@@ -546,23 +765,246 @@ public class ApiExtractProcessor implements Processor {
 			if (roundEnv.errorRaised()) {
 				return false;
 			}
-			Map<Element, InclusionState> allpublicelements = new HashMap<>(publicAnnotatedElements);
-			for (Entry<Element, InclusionState> entry : publicAnnotatedElements.entrySet()) {
-				LinkedList<Element> depstack = new LinkedList<>();
-				depstack.add(entry.getKey());
-				addRelatedElements(entry.getKey(), entry.getValue(), allpublicelements, depstack);
+			if (statistics != null) {
+				statistics.startPhase(ProcessingStatistics.Phase.CLOSURE);
+			}
+			Map<Element, InclusionState> allpublicelements = collectIncludedElements();
+			if (statistics != null) {
+				statistics.endPhase(ProcessingStatistics.Phase.CLOSURE);
+				statistics.setAnnotatedCounts(publicAnnotatedElements.size(), excludedAnnotatedElements.size());
+				for (Element elem : allpublicelements.keySet()) {
+					statistics.addIncludedElement(elem.getKind());
+				}
 			}
-
-			allpublicelements.keySet().removeAll(excludedAnnotatedElements);
 			if (roundEnv.errorRaised()) {
 				return false;
 			}
+			if (statistics != null) {
+				statistics.startPhase(ProcessingStatistics.Phase.DOC_WARNINGS);
+			}
+			Object docwarnevent = FlightRecorderEvents.DOC_WARNINGS.begin();
 			warnMissingDocumentations(allpublicelements);
-			generate(allpublicelements);
+			if (docwarnevent != null) {
+				FlightRecorderEvents.DOC_WARNINGS.commit(docwarnevent, allpublicelements.size());
+			}
+			if (statistics != null) {
+				statistics.endPhase(ProcessingStatistics.Phase.DOC_WARNINGS);
+				statistics.startPhase(ProcessingStatistics.Phase.MODEL);
+			}
+
+			Map<String, Element[]> originatingelements = new HashMap<>();
+			try (SpillingTypeModelQueue apitypes = createTypeModels(allpublicelements, originatingelements,
+					type -> !emittedTypeNames.contains(symbols.getBinaryName(type)))) {
+				//only the originating elements are necessary from the compiler model after this point
+				allpublicelements = null;
+				publicAnnotatedElements = Collections.emptySet();
+				excludedAnnotatedElements = Collections.emptySet();
+
+				if (statistics != null) {
+					statistics.endPhase(ProcessingStatistics.Phase.MODEL);
+					statistics.startPhase(ProcessingStatistics.Phase.GENERATE);
+				}
+				generate(apitypes, originatingelements);
+			}
+			if (statistics != null) {
+				statistics.endPhase(ProcessingStatistics.Phase.GENERATE);
+				writeStatistics();
+			}
+		} else if (streaming && !roundEnv.errorRaised()) {
+			streamFinalTypes();
 		}
 		return false;
 	}
 
+	private Map<Element, InclusionState> collectIncludedElements() {
+		Object closureevent = FlightRecorderEvents.CLOSURE.begin();
+		//the inclusion states are created for each computation, as the closure may be computed in multiple rounds
+		Map<Element, InclusionState> allpublicelements = new LinkedHashMap<>();
+		for (Element pubelem : publicAnnotatedElements) {
+			allpublicelements.put(pubelem, new InclusionState(pubelem));
+		}
+		for (Element pubelem : publicAnnotatedElements) {
+			addRelatedElements(pubelem, allpublicelements.get(pubelem), allpublicelements);
+		}
+
+		allpublicelements.keySet().removeAll(excludedAnnotatedElements);
+		if (closureevent != null) {
+			FlightRecorderEvents.CLOSURE.commit(closureevent, publicAnnotatedElements.size(),
+					allpublicelements.size());
+		}
+		return allpublicelements;
+	}
+
+	/**
+	 * Emits the stubs of the types which are already final in a processing round before the last one.
+	 * <p>
+	 * The elements that are annotated in the later rounds are in newly generated compilation units, therefore they
+	 * cannot change the members of the already included types, only cause their nested types to be included.
+	 */
+	private void streamFinalTypes() {
+		for (Element pubelem : publicAnnotatedElements) {
+			if (hasExcludedEnclosingElement(pubelem)) {
+				//reported as an error in the last round, don't emit anything
+				return;
+			}
+		}
+		if (statistics != null) {
+			statistics.startPhase(ProcessingStatistics.Phase.CLOSURE);
+		}
+		Map<Element, InclusionState> allpublicelements = collectIncludedElements();
+		if (statistics != null) {
+			statistics.endPhase(ProcessingStatistics.Phase.CLOSURE);
+			statistics.startPhase(ProcessingStatistics.Phase.MODEL);
+		}
+		Map<String, Element[]> originatingelements = new HashMap<>();
+		try (SpillingTypeModelQueue apitypes = createTypeModels(allpublicelements, originatingelements,
+				type -> !emittedTypeNames.contains(symbols.getBinaryName(type))
+						&& isStubFinal(type, allpublicelements))) {
+			if (statistics != null) {
+				statistics.endPhase(ProcessingStatistics.Phase.MODEL);
+				statistics.startPhase(ProcessingStatistics.Phase.GENERATE);
+			}
+			emit(StandardLocation.locationFor("API_OUTPUT"), apitypes, originatingelements);
+		}
+		if (statistics != null) {
+			statistics.endPhase(ProcessingStatistics.Phase.GENERATE);
+		}
+	}
+
+	private boolean isStubFinal(TypeElement type, Map<Element, InclusionState> allpublicelements) {
+		if (!isResolved(type.getSuperclass()) || !areResolved(type.getInterfaces()) || !isAnnotationResolved(type)) {
+			return false;
+		}
+		for (TypeParameterElement tpe : type.getTypeParameters()) {
+			if (!areResolved(tpe.getBounds())) {
+				return false;
+			}
+		}
+		for (Element enclosed : type.getEnclosedElements()) {
+			if (isTypeElementKind(enclosed.getKind())) {
+				//the nested type may be included by the later rounds, which adds it to the inner classes
+				if (!allpublicelements.containsKey(enclosed) && !excludedAnnotatedElements.contains(enclosed)
+						&& !enclosed.getModifiers().contains(Modifier.PRIVATE)) {
+					return false;
+				}
+				continue;
+			}
+			if (!allpublicelements.containsKey(enclosed)) {
+				continue;
+			}
+			if (!isAnnotationResolved(enclosed)) {
+				return false;
+			}
+			if (isExecutableElementKind(enclosed.getKind())) {
+				ExecutableElement ee = (ExecutableElement) enclosed;
+				if (!isResolved(ee.getReturnType()) || !areResolved(ee.getThrownTypes())) {
+					return false;
+				}
+				for (VariableElement pe : ee.getParameters()) {
+					if (!isResolved(pe.asType())) {
+						return false;
+					}
+				}
+				for (TypeParameterElement tpe : ee.getTypeParameters()) {
+					if (!areResolved(tpe.getBounds())) {
+						return false;
+					}
+				}
+				AnnotationValue defval = ee.getDefaultValue();
+				if (defval != null && !isResolved(defval)) {
+					return false;
+				}
+			} else if (!isResolved(enclosed.asType())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean areResolved(List<? extends TypeMirror> types) {
+		for (TypeMirror tm : types) {
+			if (!isResolved(tm)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the type doesn't reference types that are not yet available.
+	 * <p>
+	 * Type variables are not followed, their bounds are checked at the declaration.
+	 */
+	private static boolean isResolved(TypeMirror tm) {
+		if (tm == null) {
+			return true;
+		}
+		switch (tm.getKind()) {
+			case ERROR: {
+				return false;
+			}
+			case ARRAY: {
+				return isResolved(((ArrayType) tm).getComponentType());
+			}
+			case DECLARED: {
+				DeclaredType dt = (DeclaredType) tm;
+				return isResolved(dt.getEnclosingType()) && areResolved(dt.getTypeArguments());
+			}
+			case INTERSECTION: {
+				return areResolved(((IntersectionType) tm).getBounds());
+			}
+			case UNION: {
+				return areResolved(((UnionType) tm).getAlternatives());
+			}
+			case WILDCARD: {
+				WildcardType wt = (WildcardType) tm;
+				return isResolved(wt.getExtendsBound()) && isResolved(wt.getSuperBound());
+			}
+			default: {
+				return true;
+			}
+		}
+	}
+
+	private static boolean isAnnotationResolved(AnnotatedConstruct construct) {
+		for (AnnotationMirror am : construct.getAnnotationMirrors()) {
+			if (!isResolved(am)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isResolved(AnnotationMirror am) {
+		if (!isResolved(am.getAnnotationType())) {
+			return false;
+		}
+		for (AnnotationValue av : am.getElementValues().values()) {
+			if (!isResolved(av)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isResolved(AnnotationValue av) {
+		Object val = av.getValue();
+		if (val instanceof TypeMirror) {
+			return isResolved((TypeMirror) val);
+		}
+		if (val instanceof AnnotationMirror) {
+			return isResolved((AnnotationMirror) val);
+		}
+		if (val instanceof List) {
+			for (Object elem : (List<?>) val) {
+				if (!isResolved((AnnotationValue) elem)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation,
 			ExecutableElement member, String userText) {
@@ -610,7 +1052,7 @@ public class ApiExtractProcessor implements Processor {
 	private void warnMissingDocumentations(Map<Element, InclusionState> allpublicelements) {
 		if (warnNoDocumentation) {
 			for (Element pubelem : allpublicelements.keySet()) {
-				if (!isInPackages(pubelem, docWarnBasePackageNames)) {
+				if (!isInPackages(pubelem, docWarnPackageMatcher)) {
 					//do not warn for no doc warn packages
 					continue;
 				}
@@ -670,18 +1112,35 @@ public class ApiExtractProcessor implements Processor {
 
 						}
 					}
-					if (pubelem.getAnnotation(Override.class) == null) {
-						//TODO take overriding into account
-						if (elements.getDocComment(pubelem) == null) {
-							messager.printMessage(Diagnostic.Kind.WARNING, constructUndocumentedMessage(pubelem),
-									pubelem);
-						}
+					if (elements.getDocComment(pubelem) == null
+							&& !hasInheritedDocumentation((ExecutableElement) pubelem)) {
+						messager.printMessage(Diagnostic.Kind.WARNING, constructUndocumentedMessage(pubelem), pubelem);
 					}
 				}
 			}
 		}
 	}
 
+	/**
+	 * Checks if the method inherits the documentation of an overridden method.
+	 * <p>
+	 * The documentation is inherited if an overridden method is documented, or it is outside of the documentation
+	 * warning packages, in which case it is assumed to be documented.
+	 */
+	private boolean hasInheritedDocumentation(ExecutableElement method) {
+		List<ExecutableElement> overridden = overrideIndex.getOverriddenMethods(method);
+		if (overridden.isEmpty()) {
+			//the method may override an unresolved method
+			return method.getAnnotation(Override.class) != null;
+		}
+		for (ExecutableElement om : overridden) {
+			if (!isInPackages(om, docWarnPackageMatcher) || elements.getDocComment(om) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private static TypeElement getTypeElementFromMirror(TypeMirror tm) {
 		if (tm == null) {
 			return null;
@@ -692,153 +1151,22 @@ public class ApiExtractProcessor implements Processor {
 		return (TypeElement) ((DeclaredType) tm).asElement();
 	}
 
-	private void generate(Map<Element, InclusionState> allpublicelements) {
-		Location outloc = StandardLocation.locationFor("API_OUTPUT");
-		for (Entry<Element, InclusionState> entry : allpublicelements.entrySet()) {
-			Element pubelem = entry.getKey();
-			ElementKind kind = pubelem.getKind();
-			switch (kind) {
+	/**
+	 * Creates the models of the included types in a deterministic order.
+	 * <p>
+	 * The models are spilled to the disk if the heap budget is exceeded, the returned queue must be closed.
+	 */
+	private SpillingTypeModelQueue createTypeModels(Map<Element, InclusionState> allpublicelements,
+			Map<String, Element[]> originatingelements, Predicate<? super TypeElement> typefilter) {
+		List<TypeElement> types = new ArrayList<>();
+		for (Element pubelem : allpublicelements.keySet()) {
+			switch (pubelem.getKind()) {
 				case ANNOTATION_TYPE:
 				case CLASS:
 				case INTERFACE:
 				case ENUM: {
-					TypeElement type = (TypeElement) pubelem;
-					String binaryname = elements.getBinaryName(type).toString();
-					int packidx = binaryname.lastIndexOf('.');
-					try {
-						FileObject res = filer.createResource(outloc,
-								packidx < 0 ? "" : binaryname.substring(0, packidx),
-								binaryname.substring(packidx + 1) + ".class",
-								entry.getValue().dependentElements.toArray(EMPTY_ELEMENT_ARRAY));
-						ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-						String internalname = binaryname.replace('.', '/');
-						String supercinternalname = getSuperClassInternalName(type);
-						String cgenericsignature = getGenericSignature(type);
-						String[] itfs = getInterfaceInternalNames(type);
-						//XXX set appropriate version code when default methods, static interface methods, etc... are used
-						int version = Opcodes.V1_8;
-						cw.visit(version, getClassModifierAccessOpcode(type), internalname, cgenericsignature,
-								supercinternalname, itfs);
-
-						visitClassAnnotations(pubelem, cw);
-
-						writeInnerClassAttributes(cw, type);
-						writeInnerClassAttributes(cw, getTypeElementFromMirror(type.getSuperclass()));
-						for (TypeMirror itf : type.getInterfaces()) {
-							writeInnerClassAttributes(cw, getTypeElementFromMirror(itf));
-						}
-						//TODO should we visit inner class information about occurring types (e.g. field type, method return, argument types)
-
-						for (Element enclosed : type.getEnclosedElements()) {
-							if (!allpublicelements.containsKey(enclosed)) {
-								continue;
-							}
-							ElementKind ek = enclosed.getKind();
-							switch (ek) {
-								case INTERFACE:
-								case CLASS:
-								case ENUM:
-								case ANNOTATION_TYPE: {
-									TypeElement te = (TypeElement) enclosed;
-									int access = getInnerClassModifierAccessOpcode(te);
-									cw.visitInnerClass(getInternalName(te), internalname, te.getSimpleName().toString(),
-											access);
-									break;
-								}
-								case CONSTRUCTOR:
-								case METHOD: {
-									ExecutableElement ee = (ExecutableElement) enclosed;
-									String mname = ek == ElementKind.CONSTRUCTOR ? "<init>"
-											: ee.getSimpleName().toString();
-									String[] exceptions;
-									List<? extends TypeMirror> throwns = ee.getThrownTypes();
-									if (throwns.isEmpty()) {
-										exceptions = null;
-									} else {
-										exceptions = new String[throwns.size()];
-										for (int i = 0; i < exceptions.length; i++) {
-											TypeMirror throwntm = throwns.get(i);
-											exceptions[i] = getInternalName(throwntm);
-										}
-									}
-									List<TypeElement> implicitparameters = getImplicitInnerClassConstructorParameters(
-											ee);
-									MethodVisitor mw = cw.visitMethod(getMethodModifierAccessOpcode(type, ee), mname,
-											getDescriptor(ee, implicitparameters),
-											getGenericSignature(ee, implicitparameters), exceptions);
-									for (VariableElement pe : ee.getParameters()) {
-										mw.visitParameter(pe.getSimpleName().toString(),
-												getParameterModifierAccessOpcode(type, ee, pe));
-									}
-									visitMethodAnnotations(ee, mw);
-
-									AnnotationValue defval = ee.getDefaultValue();
-									if (defval != null) {
-										visitMethodAnnotationDefaultValue(ee, mw, defval);
-									}
-									Set<Modifier> emods = ee.getModifiers();
-									if (!emods.contains(Modifier.ABSTRACT)) {
-										mw.visitCode();
-										mw.visitTypeInsn(Opcodes.NEW,
-												Type.getInternalName(UnsupportedOperationException.class));
-										mw.visitInsn(Opcodes.DUP);
-										mw.visitLdcInsn("API only.");
-										mw.visitMethodInsn(Opcodes.INVOKESPECIAL,
-												Type.getInternalName(UnsupportedOperationException.class), "<init>",
-												"(Ljava/lang/String;)V", false);
-										mw.visitInsn(Opcodes.ATHROW);
-										mw.visitMaxs(0, 0);
-									}
-									mw.visitEnd();
-									break;
-								}
-								case ENUM_CONSTANT: {
-									VariableElement ve = (VariableElement) enclosed;
-									FieldVisitor fw = cw.visitField(getFieldModifierAccessOpcode(type, ve),
-											ve.getSimpleName().toString(), "L" + internalname + ";", null, null);
-									visitFieldAnnotations(ve, fw);
-									fw.visitEnd();
-									break;
-								}
-								case FIELD: {
-									VariableElement ve = (VariableElement) enclosed;
-									String fieldsignature = getGenericSignature(ve);
-									Object fieldvalue = ve.getConstantValue();
-
-									int modifiers = getFieldModifierAccessOpcode(type, ve);
-									if (fieldvalue != null && ((modifiers
-											& (Opcodes.ACC_STATIC | Opcodes.ACC_FINAL)) == (Opcodes.ACC_STATIC
-													| Opcodes.ACC_FINAL))) {
-										//check if we need to unfinalize the constant
-										PublicApi pubapi = ve.getAnnotation(PublicApi.class);
-										if (pubapi != null) {
-											DefaultableBoolean unconst = pubapi.unconstantize();
-											if (unconst == DefaultableBoolean.TRUE) {
-												//just don't set the constant value, it can remain final
-												fieldvalue = null;
-											}
-										}
-									}
-									FieldVisitor fw = cw.visitField(modifiers, ve.getSimpleName().toString(),
-											getDescriptor(ve.asType()), fieldsignature,
-											toConstantValueWithType(fieldvalue, ve.asType()));
-									visitFieldAnnotations(ve, fw);
-									fw.visitEnd();
-									break;
-								}
-								default: {
-									break;
-								}
-							}
-						}
-
-						cw.visitEnd();
-						byte[] cbytes = cw.toByteArray();
-						try (OutputStream os = res.openOutputStream()) {
-							os.write(cbytes);
-						}
-					} catch (IOException e) {
-						throw new UncheckedIOException("Failed to write: " + binaryname, e);
+					if (typefilter.test((TypeElement) pubelem)) {
+						types.add((TypeElement) pubelem);
 					}
 					break;
 				}
@@ -847,92 +1175,542 @@ public class ApiExtractProcessor implements Processor {
 				}
 			}
 		}
+		//sort the elements before creating the models, so the spilled models don't need to be reordered
+		types.sort((l, r) -> symbols.getBinaryName(l).compareTo(symbols.getBinaryName(r)));
+		SpillingTypeModelQueue result = new SpillingTypeModelQueue(maxHeapBytes);
+		try {
+			for (TypeElement type : types) {
+				ApiTypeModel typemodel = createTypeModel(type, allpublicelements);
+				result.add(typemodel);
+				originatingelements.put(typemodel.getBinaryName(),
+						getOriginatingElements(type, allpublicelements).toArray(EMPTY_ELEMENT_ARRAY));
+			}
+		} catch (RuntimeException | Error e) {
+			try {
+				result.close();
+			} catch (RuntimeException ce) {
+				e.addSuppressed(ce);
+			}
+			throw e;
+		}
+		return result;
 	}
 
-	private static RetentionPolicy getAnnotationRetentionPolicy(TypeElement annotationelement) {
-		Retention retention = annotationelement.getAnnotation(Retention.class);
-		RetentionPolicy retpolicy = retention == null ? RetentionPolicy.CLASS : retention.value();
-		return retpolicy;
+	private void generate(Iterable<ApiTypeModel> apitypes, Map<String, Element[]> originatingelements) {
+		Location outloc = StandardLocation.locationFor("API_OUTPUT");
+		if (outputJarName != null && incremental) {
+			addEmittedTypes(apitypes);
+			if (fingerprintIndex.isSameFingerprints(getPreviousFingerprintIndex(outloc))
+					&& resourceExists(outloc, "", outputJarName)) {
+				//the JAR is up to date
+				jarEntries = null;
+			} else {
+				addJarEntries(apitypes, originatingelements);
+			}
+		} else {
+			emit(outloc, apitypes, originatingelements);
+		}
+		if (jarEntries != null) {
+			writeJar(outloc);
+		}
+		if (incremental && outputJarName == null) {
+			ApiFingerprintIndex previndex = getPreviousFingerprintIndex(outloc);
+			if (previndex != null) {
+				for (String binaryname : previndex.getBinaryNames()) {
+					if (fingerprintIndex.get(binaryname) == null) {
+						deleteStub(outloc, binaryname);
+					}
+				}
+			}
+		}
+		if (abiHashName != null) {
+			ApiAbiHash abihash = new ApiAbiHash();
+			for (String binaryname : fingerprintIndex.getBinaryNames()) {
+				abihash.add(binaryname, fingerprintIndex.get(binaryname));
+			}
+			writeResource(outloc, "", abiHashName, abihash.toByteArray(), EMPTY_ELEMENT_ARRAY);
+		}
+		if (inclusionIndexName != null) {
+			writeInclusionIndex(outloc);
+		}
+		if (incremental) {
+			writeFingerprintIndex(outloc, fingerprintIndex);
+		}
 	}
 
-	private void visitClassAnnotations(AnnotatedConstruct pubelem, ClassVisitor visitor) {
-		for (AnnotationMirror am : pubelem.getAnnotationMirrors()) {
-			DeclaredType amtype = am.getAnnotationType();
-			if (amtype == null) {
-				continue;
+	/**
+	 * Generates the stubs of the types in the model.
+	 * <p>
+	 * The stubs are written as class files, or compressed to be written to the JAR at the end of processing.
+	 */
+	private void emit(Location outloc, Iterable<ApiTypeModel> apitypes, Map<String, Element[]> originatingelements) {
+		addEmittedTypes(apitypes);
+		if (outputJarName != null) {
+			addJarEntries(apitypes, originatingelements);
+		} else {
+			generateClassFiles(outloc, apitypes, originatingelements);
+		}
+	}
+
+	private void addEmittedTypes(Iterable<ApiTypeModel> apitypes) {
+		for (ApiTypeModel type : apitypes) {
+			String binaryname = type.getBinaryName();
+			emittedTypeNames.add(binaryname);
+			if (fingerprintIndex != null) {
+				fingerprintIndex.put(binaryname, ApiFingerprintIndex.fingerprint(type));
 			}
-			TypeElement amelem = (TypeElement) amtype.asElement();
-			RetentionPolicy retpolicy = getAnnotationRetentionPolicy(amelem);
-			if (retpolicy == RetentionPolicy.SOURCE) {
-				continue;
+			if (inclusionIndex != null) {
+				inclusionIndex.add(type);
+			}
+		}
+	}
+
+	private void generateClassFiles(Location outloc, Iterable<ApiTypeModel> apitypes,
+			Map<String, Element[]> originatingelements) {
+		Predicate<ApiTypeModel> generatefilter = null;
+		if (incremental) {
+			ApiFingerprintIndex previndex = getPreviousFingerprintIndex(outloc);
+			if (previndex != null) {
+				generatefilter = type -> {
+					String binaryname = type.getBinaryName();
+					return !previndex.isSameFingerprint(binaryname, fingerprintIndex.get(binaryname))
+							|| !stubExists(outloc, binaryname);
+				};
 			}
-			boolean visible = retpolicy == RetentionPolicy.RUNTIME;
-			AnnotationVisitor av = visitor.visitAnnotation(getDescriptor(amelem.asType()), visible);
-			if (av != null) {
-				for (Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : am.getElementValues()
-						.entrySet()) {
-					visitAnnotationVisitor(entry.getKey(), av, entry.getValue());
+		}
+		generateStubs(outloc, apitypes, generatefilter, originatingelements);
+	}
+
+	private void generateStubs(Location outloc, Iterable<ApiTypeModel> apitypes,
+			Predicate<? super ApiTypeModel> generatefilter, Map<String, Element[]> originatingelements) {
+		if (!writeBehind) {
+			generateStubs(outloc, apitypes, generatefilter, originatingelements, null);
+			return;
+		}
+		try (WriteBehindQueue writer = new WriteBehindQueue(WRITE_BEHIND_CAPACITY)) {
+			generateStubs(outloc, apitypes, generatefilter, originatingelements, writer);
+		}
+	}
+
+	private void generateStubs(Location outloc, Iterable<ApiTypeModel> apitypes,
+			Predicate<? super ApiTypeModel> generatefilter, Map<String, Element[]> originatingelements,
+			WriteBehindQueue writer) {
+		if (threadCount <= 1) {
+			for (ApiTypeModel type : apitypes) {
+				if (generatefilter != null && !generatefilter.test(type)) {
+					continue;
 				}
-				av.visitEnd();
+				String binaryname = type.getBinaryName();
+				writeStub(outloc, binaryname, generateStub(type), originatingelements.get(binaryname), writer);
 			}
+			return;
+		}
+		ForkJoinPool pool = new ForkJoinPool(threadCount);
+		try {
+			//the number of pending stubs is limited, so the models and bytes of all types are not held at once
+			int maxpending = threadCount * PENDING_STUBS_PER_THREAD;
+			ArrayDeque<PendingStub> pending = new ArrayDeque<>(maxpending);
+			for (ApiTypeModel type : apitypes) {
+				if (generatefilter != null && !generatefilter.test(type)) {
+					continue;
+				}
+				if (pending.size() >= maxpending) {
+					writePendingStub(outloc, pending.removeFirst(), originatingelements, writer);
+				}
+				pending.addLast(new PendingStub(type.getBinaryName(), pool.submit(() -> generateStub(type))));
+			}
+			//only the bytecode generation is offloaded, the Filer is accessed on the processing thread
+			while (!pending.isEmpty()) {
+				writePendingStub(outloc, pending.removeFirst(), originatingelements, writer);
+			}
+		} finally {
+			pool.shutdownNow();
 		}
 	}
 
-	private void visitFieldAnnotations(AnnotatedConstruct pubelem, FieldVisitor visitor) {
-		for (AnnotationMirror am : pubelem.getAnnotationMirrors()) {
-			DeclaredType amtype = am.getAnnotationType();
-			if (amtype == null) {
-				continue;
+	private void writePendingStub(Location outloc, PendingStub ps, Map<String, Element[]> originatingelements,
+			WriteBehindQueue writer) {
+		writeStub(outloc, ps.binaryName, ps.bytesTask.join(), originatingelements.get(ps.binaryName), writer);
+	}
+
+	private void addJarEntries(Iterable<ApiTypeModel> apitypes, Map<String, Element[]> originatingelements) {
+		if (threadCount <= 1) {
+			for (ApiTypeModel type : apitypes) {
+				jarEntries.add(ApiJarWriter.compress(type.getInternalName() + ".class", generateStub(type)));
+				addJarOriginatingElements(type, originatingelements);
 			}
-			TypeElement amelem = (TypeElement) amtype.asElement();
-			RetentionPolicy retpolicy = getAnnotationRetentionPolicy(amelem);
-			if (retpolicy == RetentionPolicy.SOURCE) {
-				continue;
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(threadCount);
+			try {
+				int maxpending = threadCount * PENDING_STUBS_PER_THREAD;
+				ArrayDeque<ForkJoinTask<ApiJarWriter.CompressedEntry>> tasks = new ArrayDeque<>(maxpending);
+				for (ApiTypeModel type : apitypes) {
+					if (tasks.size() >= maxpending) {
+						jarEntries.add(tasks.removeFirst().join());
+					}
+					tasks.addLast(pool.submit(
+							() -> ApiJarWriter.compress(type.getInternalName() + ".class", generateStub(type))));
+					addJarOriginatingElements(type, originatingelements);
+				}
+				while (!tasks.isEmpty()) {
+					jarEntries.add(tasks.removeFirst().join());
+				}
+			} finally {
+				pool.shutdownNow();
 			}
-			boolean visible = retpolicy == RetentionPolicy.RUNTIME;
-			AnnotationVisitor av = visitor.visitAnnotation(getDescriptor(amelem.asType()), visible);
-			if (av != null) {
-				for (Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : am.getElementValues()
-						.entrySet()) {
-					visitAnnotationVisitor(entry.getKey(), av, entry.getValue());
+		}
+	}
+
+	private void addJarOriginatingElements(ApiTypeModel type, Map<String, Element[]> originatingelements) {
+		Element[] typeorigins = originatingelements.get(type.getBinaryName());
+		if (typeorigins != null) {
+			jarOriginatingElements.addAll(Arrays.asList(typeorigins));
+		}
+	}
+
+	private void writeJar(Location outloc) {
+		List<ApiJarWriter.CompressedEntry> entries = new ArrayList<>(jarEntries.size() + 1);
+		entries.add(ApiJarWriter.compress(ApiJarWriter.MANIFEST_ENTRY_NAME, ApiJarWriter.getManifestBytes()));
+		entries.addAll(jarEntries);
+		Element[] jarorigins = jarOriginatingElements.toArray(EMPTY_ELEMENT_ARRAY);
+		jarEntries = null;
+		try {
+			if (writeIfChanged) {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				ApiJarWriter.write(baos, entries);
+				writeResource(outloc, "", outputJarName, baos.toByteArray(), jarorigins);
+			} else {
+				FileObject res = filer.createResource(outloc, "", outputJarName, jarorigins);
+				try (OutputStream os = new BufferedOutputStream(res.openOutputStream(), 64 * 1024)) {
+					ApiJarWriter.write(os, entries);
 				}
-				av.visitEnd();
 			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write API JAR: " + outputJarName, e);
 		}
 	}
 
-	private void visitMethodAnnotations(AnnotatedConstruct pubelem, MethodVisitor visitor) {
-		for (AnnotationMirror am : pubelem.getAnnotationMirrors()) {
-			DeclaredType amtype = am.getAnnotationType();
-			if (amtype == null) {
-				continue;
+	private byte[] generateStub(ApiTypeModel type) {
+		//may be called concurrently by the generator threads
+		Object emitevent = FlightRecorderEvents.EMIT_TYPE.begin();
+		ProcessingStatistics stats = statistics;
+		byte[] result;
+		if (stats == null) {
+			result = ApiStubGenerator.generate(type, stubBodyPolicy, includeParameterNames);
+		} else {
+			long start = System.nanoTime();
+			result = ApiStubGenerator.generate(type, stubBodyPolicy, includeParameterNames);
+			stats.addGeneratedType(type.getBinaryName(), result.length, System.nanoTime() - start);
+		}
+		if (emitevent != null) {
+			FlightRecorderEvents.EMIT_TYPE.commit(emitevent, type.getBinaryName(), type.getMembers().size(),
+					result.length);
+		}
+		return result;
+	}
+
+	private void writeStatistics() {
+		try {
+			statistics.writeTo(statsPath);
+		} catch (IOException e) {
+			messager.printMessage(Diagnostic.Kind.WARNING,
+					"Failed to write processing statistics to: " + statsPath + " (" + e + ")");
+		}
+	}
+
+	private String getGeneratorConfiguration() {
+		return "body=" + stubBodyPolicy + ";parameter_names=" + includeParameterNames;
+	}
+
+	private ApiFingerprintIndex getPreviousFingerprintIndex(Location outloc) {
+		//read only once, as it is overwritten at the end of processing
+		if (!previousFingerprintIndexRead) {
+			previousFingerprintIndexRead = true;
+			previousFingerprintIndex = readFingerprintIndex(outloc);
+		}
+		return previousFingerprintIndex;
+	}
+
+	private ApiFingerprintIndex readFingerprintIndex(Location outloc) {
+		try {
+			FileObject res = filer.getResource(outloc, "", FINGERPRINT_INDEX_RESOURCE_NAME);
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(res.openInputStream()))) {
+				return ApiFingerprintIndex.readFrom(in, getGeneratorConfiguration());
 			}
-			TypeElement amelem = (TypeElement) amtype.asElement();
-			RetentionPolicy retpolicy = getAnnotationRetentionPolicy(amelem);
-			if (retpolicy == RetentionPolicy.SOURCE) {
-				continue;
+		} catch (IOException | IllegalArgumentException e) {
+			//no previous index, or it is not readable. generate all stubs
+			return null;
+		}
+	}
+
+	private void writeFingerprintIndex(Location outloc, ApiFingerprintIndex index) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(baos)) {
+			index.writeTo(out);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write API fingerprint index.", e);
+		}
+		writeResource(outloc, "", FINGERPRINT_INDEX_RESOURCE_NAME, baos.toByteArray(), EMPTY_ELEMENT_ARRAY);
+	}
+
+	private void writeInclusionIndex(Location outloc) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(baos)) {
+			inclusionIndex.writeTo(out);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write API inclusion index.", e);
+		}
+		writeResource(outloc, "", inclusionIndexName, baos.toByteArray(), EMPTY_ELEMENT_ARRAY);
+	}
+
+	private boolean stubExists(Location outloc, String binaryname) {
+		int packidx = binaryname.lastIndexOf('.');
+		return resourceExists(outloc, packidx < 0 ? "" : binaryname.substring(0, packidx),
+				binaryname.substring(packidx + 1) + ".class");
+	}
+
+	private boolean resourceExists(Location outloc, String packagename, String relativename) {
+		try {
+			FileObject res = filer.getResource(outloc, packagename, relativename);
+			return res.getLastModified() != 0L;
+		} catch (IOException | IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private void deleteStub(Location outloc, String binaryname) {
+		int packidx = binaryname.lastIndexOf('.');
+		try {
+			FileObject res = filer.getResource(outloc, packidx < 0 ? "" : binaryname.substring(0, packidx),
+					binaryname.substring(packidx + 1) + ".class");
+			if (res.delete()) {
+				return;
+			}
+			//the file objects returned by the Filer may refuse deletion, remove it directly if possible
+			URI uri = res.toUri();
+			if ("file".equals(uri.getScheme())) {
+				Files.deleteIfExists(Paths.get(uri));
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			messager.printMessage(Diagnostic.Kind.WARNING,
+					"Failed to delete stale API stub: " + binaryname + " (" + e + ")");
+		}
+	}
+
+	/**
+	 * Writes a stub class file, or passes it to the writer thread if it's not <code>null</code>.
+	 */
+	private void writeStub(Location outloc, String binaryname, byte[] cbytes, Element[] originatingelements,
+			WriteBehindQueue writer) {
+		int packidx = binaryname.lastIndexOf('.');
+		String packagename = packidx < 0 ? "" : binaryname.substring(0, packidx);
+		String relativename = binaryname.substring(packidx + 1) + ".class";
+		if (writer == null) {
+			writeResource(outloc, packagename, relativename, cbytes, originatingelements);
+			return;
+		}
+		FileObject res = createChangedResource(outloc, packagename, relativename, cbytes, originatingelements);
+		if (res != null) {
+			writer.write(res, cbytes, binaryname);
+		}
+	}
+
+	private void writeResource(Location outloc, String packagename, String relativename, byte[] bytes,
+			Element[] originatingelements) {
+		FileObject res = createChangedResource(outloc, packagename, relativename, bytes, originatingelements);
+		if (res == null) {
+			return;
+		}
+		try (OutputStream os = res.openOutputStream()) {
+			os.write(bytes);
+		} catch (IOException e) {
+			throw new UncheckedIOException(
+					"Failed to write: " + (packagename.isEmpty() ? "" : packagename + ".") + relativename, e);
+		}
+	}
+
+	/**
+	 * Creates the resource through the {@link Filer}, unless it is unchanged and only the changed files are written.
+	 * 
+	 * @return The created resource or <code>null</code> if it doesn't need to be written.
+	 */
+	private FileObject createChangedResource(Location outloc, String packagename, String relativename,
+			byte[] bytes, Element[] originatingelements) {
+		try {
+			if (writeIfChanged && hasSameContents(outloc, packagename, relativename, bytes)) {
+				return null;
 			}
-			boolean visible = retpolicy == RetentionPolicy.RUNTIME;
-			AnnotationVisitor av = visitor.visitAnnotation(getDescriptor(amelem.asType()), visible);
-			if (av != null) {
-				for (Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : am.getElementValues()
-						.entrySet()) {
-					visitAnnotationVisitor(entry.getKey(), av, entry.getValue());
+			return filer.createResource(outloc, packagename, relativename, originatingelements);
+		} catch (IOException e) {
+			throw new UncheckedIOException(
+					"Failed to write: " + (packagename.isEmpty() ? "" : packagename + ".") + relativename, e);
+		}
+	}
+
+	private boolean hasSameContents(Location outloc, String packagename, String relativename, byte[] bytes) {
+		FileObject existing;
+		try {
+			existing = filer.getResource(outloc, packagename, relativename);
+		} catch (IOException | IllegalArgumentException e) {
+			return false;
+		}
+		try {
+			URI uri = existing.toUri();
+			if ("file".equals(uri.getScheme())) {
+				return hasSameContents(Paths.get(uri), bytes);
+			}
+			try (InputStream in = existing.openInputStream()) {
+				return hasSameContents(in, bytes);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			//the file doesn't exist, or not readable
+			return false;
+		}
+	}
+
+	private static boolean hasSameContents(Path path, byte[] bytes) throws IOException {
+		//not memory mapped, as a mapped file cannot be overwritten on Windows until the mapping is collected
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() != bytes.length) {
+				return false;
+			}
+			ByteBuffer buf = ByteBuffer.allocate(Math.min(bytes.length, COMPARISON_BUFFER_SIZE));
+			byte[] array = buf.array();
+			int offset = 0;
+			while (offset < bytes.length) {
+				buf.clear();
+				int read = channel.read(buf);
+				if (read < 0 || read > bytes.length - offset) {
+					return false;
+				}
+				for (int i = 0; i < read; i++) {
+					if (array[i] != bytes[offset + i]) {
+						return false;
+					}
 				}
-				av.visitEnd();
+				offset += read;
 			}
+			return true;
 		}
 	}
 
-	private void visitMethodAnnotationDefaultValue(ExecutableElement ee, MethodVisitor mw, AnnotationValue defval) {
-		AnnotationVisitor defvisitor = mw.visitAnnotationDefault();
-		new MethodAnnotationDefaultValueAnnotationValueVisitor(null).visit(defval, defvisitor);
-		defvisitor.visitEnd();
+	private static boolean hasSameContents(InputStream in, byte[] bytes) throws IOException {
+		byte[] buf = new byte[8192];
+		int offset = 0;
+		for (int read; (read = in.read(buf)) > 0;) {
+			if (offset + read > bytes.length) {
+				return false;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buf[i] != bytes[offset + i]) {
+					return false;
+				}
+			}
+			offset += read;
+		}
+		return offset == bytes.length;
 	}
 
-	private void visitAnnotationVisitor(ExecutableElement ee, AnnotationVisitor av, AnnotationValue value) {
-		new MethodAnnotationDefaultValueAnnotationValueVisitor(ee == null ? null : ee.getSimpleName().toString())
-				.visit(value, av);
+	private ApiTypeModel createTypeModel(TypeElement type, Map<Element, InclusionState> allpublicelements) {
+		String internalname = symbols.getInternalName(type);
+		String supercinternalname = getSuperClassInternalName(type);
+		String cgenericsignature = getGenericSignature(type);
+		String[] itfs = getInterfaceInternalNames(type);
+		//XXX set appropriate version code when default methods, static interface methods, etc... are used
+		int version = Opcodes.V1_8;
+		List<ApiMemberModel> members = new ArrayList<>();
+		addInnerClassAttributes(members, type);
+		addInnerClassAttributes(members, getTypeElementFromMirror(type.getSuperclass()));
+		for (TypeMirror itf : type.getInterfaces()) {
+			addInnerClassAttributes(members, getTypeElementFromMirror(itf));
+		}
+		//TODO should we visit inner class information about occurring types (e.g. field type, method return, argument types)
+
+		for (Element enclosed : type.getEnclosedElements()) {
+			if (!allpublicelements.containsKey(enclosed)) {
+				continue;
+			}
+			ElementKind ek = enclosed.getKind();
+			switch (ek) {
+				case INTERFACE:
+				case CLASS:
+				case ENUM:
+				case ANNOTATION_TYPE: {
+					TypeElement te = (TypeElement) enclosed;
+					int access = getInnerClassModifierAccessOpcode(te);
+					members.add(new ApiInnerClassModel(symbols.getInternalName(te), internalname,
+							te.getSimpleName().toString(), access));
+					break;
+				}
+				case CONSTRUCTOR:
+				case METHOD: {
+					ExecutableElement ee = (ExecutableElement) enclosed;
+					String mname = ek == ElementKind.CONSTRUCTOR ? "<init>" : ee.getSimpleName().toString();
+					String[] exceptions;
+					List<? extends TypeMirror> throwns = ee.getThrownTypes();
+					if (throwns.isEmpty()) {
+						exceptions = null;
+					} else {
+						exceptions = new String[throwns.size()];
+						for (int i = 0; i < exceptions.length; i++) {
+							TypeMirror throwntm = throwns.get(i);
+							exceptions[i] = symbols.getInternalName(throwntm);
+						}
+					}
+					List<? extends VariableElement> params = ee.getParameters();
+					String[] paramnames = new String[params.size()];
+					int[] paramaccess = new int[paramnames.length];
+					for (int i = 0; i < paramnames.length; i++) {
+						VariableElement pe = params.get(i);
+						paramnames[i] = pe.getSimpleName().toString();
+						paramaccess[i] = getParameterModifierAccessOpcode(type, ee, pe);
+					}
+					List<TypeElement> implicitparameters = getImplicitInnerClassConstructorParameters(ee);
+					AnnotationValue defval = ee.getDefaultValue();
+					members.add(new ApiMethodModel(getMethodModifierAccessOpcode(type, ee), mname,
+							symbols.getMethodDescriptor(ee, implicitparameters),
+							getGenericSignature(ee, implicitparameters), exceptions, paramnames, paramaccess,
+							annotationModels.getAnnotations(ee),
+							defval == null ? null : annotationModels.getValue(defval)));
+					break;
+				}
+				case ENUM_CONSTANT: {
+					VariableElement ve = (VariableElement) enclosed;
+					members.add(new ApiFieldModel(getFieldModifierAccessOpcode(type, ve),
+							ve.getSimpleName().toString(), symbols.getDescriptor(type), null, null,
+							annotationModels.getAnnotations(ve)));
+					break;
+				}
+				case FIELD: {
+					VariableElement ve = (VariableElement) enclosed;
+					String fieldsignature = getGenericSignature(ve);
+					Object fieldvalue = ve.getConstantValue();
+
+					int modifiers = getFieldModifierAccessOpcode(type, ve);
+					if (fieldvalue != null && ((modifiers & (Opcodes.ACC_STATIC
+							| Opcodes.ACC_FINAL)) == (Opcodes.ACC_STATIC | Opcodes.ACC_FINAL))) {
+						//check if we need to unfinalize the constant
+						PublicApi pubapi = ve.getAnnotation(PublicApi.class);
+						if (pubapi != null) {
+							DefaultableBoolean unconst = pubapi.unconstantize();
+							if (unconst == DefaultableBoolean.TRUE) {
+								//just don't set the constant value, it can remain final
+								fieldvalue = null;
+							}
+						}
+					}
+					members.add(new ApiFieldModel(modifiers, ve.getSimpleName().toString(),
+							symbols.getDescriptor(ve.asType()), fieldsignature,
+							toConstantValueWithType(fieldvalue, ve.asType()), annotationModels.getAnnotations(ve)));
+					break;
+				}
+				default: {
+					break;
+				}
+			}
+		}
+		return new ApiTypeModel(version, getClassModifierAccessOpcode(type), internalname, cgenericsignature,
+				supercinternalname, itfs, annotationModels.getAnnotations(type), members);
 	}
 
 	private String getSuperClassInternalName(TypeElement type) {
@@ -1015,40 +1793,95 @@ public class ApiExtractProcessor implements Processor {
 		return im == DefaultableBoolean.TRUE || (im == DefaultableBoolean.DEFAULT && defaultIncludeMembers);
 	}
 
-	private void addRelatedElements(Element e, Map<Element, InclusionState> states,
-			LinkedList<Element> dependentstack) {
-		if (excludedAnnotatedElements.contains(e)) {
-			return;
+	/**
+	 * Adds the elements that are related to the given root public API element to the states.
+	 * <p>
+	 * The closure is computed using an explicit worklist rather than recursion, so the stack usage is bounded
+	 * regardless of the depth of the reference graph. The work items are processed in the same depth-first pre-order
+	 * as the elements are referenced.
+	 */
+	private void addRelatedElements(Element root, InclusionState rootstate, Map<Element, InclusionState> states) {
+		ArrayDeque<RelatedWork> worklist = new ArrayDeque<>();
+		List<RelatedWork> pending = new ArrayList<>();
+		expandRelatedElements(root, rootstate, states, pending);
+		pushPendingWork(worklist, pending);
+		for (RelatedWork work; (work = worklist.pollFirst()) != null;) {
+			Element e = work.element;
+			if (e == null) {
+				expandRelatedElements(work.type, work.includer, pending);
+			} else {
+				if (excludedAnnotatedElements.contains(e)) {
+					continue;
+				}
+				if (!isInBasePackages(e)) {
+					continue;
+				}
+				InclusionState incstate = states.compute(e, getInclusionStateRemappingFunction(work.includer));
+				expandRelatedElements(e, incstate, states, pending);
+			}
+			pushPendingWork(worklist, pending);
 		}
-		if (!isInBasePackages(e)) {
-			return;
+	}
+
+	private static void pushPendingWork(ArrayDeque<RelatedWork> worklist, List<RelatedWork> pending) {
+		//push in reverse so the first referenced element is processed first
+		for (int i = pending.size() - 1; i >= 0; i--) {
+			worklist.addFirst(pending.get(i));
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Collects the elements that caused the given element to be included in the public API.
+	 * <p>
+	 * The result contains the element itself, and the chains of first includers starting from each direct includer of
+	 * the element. A chain of first includers is the path through which the includer was reached from a public API
+	 * annotated element.
+	 */
+	private static Set<Element> getOriginatingElements(Element elem, Map<Element, InclusionState> states) {
+		Set<Element> result = new LinkedHashSet<>();
+		result.add(elem);
+		InclusionState state = states.get(elem);
+		if (state != null) {
+			addIncluderChain(state.includer, states, result);
+			if (state.additionalIncluders != null) {
+				for (Element inc : state.additionalIncluders) {
+					addIncluderChain(inc, states, result);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void addIncluderChain(Element includer, Map<Element, InclusionState> states,
+			Set<Element> result) {
+		//if an element is already present, then its chain has been already added
+		for (Element e = includer; e != null && result.add(e);) {
+			InclusionState state = states.get(e);
+			e = state == null ? null : state.includer;
 		}
-		dependentstack.addLast(e);
-		addRelatedElements(e, states.compute(e, getInclusionStateRemappingFunction(dependentstack)), states,
-				dependentstack);
-		dependentstack.removeLast();
 	}
 
 	private static BiFunction<? super Element, ? super InclusionState, ? extends InclusionState> getInclusionStateRemappingFunction(
-			LinkedList<Element> dependentstack) {
+			Element includer) {
 		BiFunction<? super Element, ? super InclusionState, ? extends InclusionState> remappingFunction = (k, v) -> {
 			if (v == null) {
-				return new InclusionState(k, dependentstack);
+				return new InclusionState(k, includer);
 			}
-			v.dependentElements.addAll(dependentstack);
+			v.addIncluder(includer);
 			return v;
 		};
 		return remappingFunction;
 	}
 
-	private void addRelatedElements(Element e, InclusionState incstate, Map<Element, InclusionState> states,
-			LinkedList<Element> dependentstack) {
+	private void expandRelatedElements(Element e, InclusionState incstate, Map<Element, InclusionState> states,
+			List<RelatedWork> pending) {
 		if (!incstate.enclosingChecked) {
 			incstate.enclosingChecked = true;
 			Element enclosing = e.getEnclosingElement();
 			if (enclosing != null && isTypeElementKind(enclosing.getKind())) {
 				if (!excludedAnnotatedElements.contains(enclosing)) {
-					states.compute(enclosing, getInclusionStateRemappingFunction(dependentstack));
+					states.compute(enclosing, getInclusionStateRemappingFunction(e));
 				}
 			}
 		}
@@ -1061,7 +1894,7 @@ public class ApiExtractProcessor implements Processor {
 					if (pubannot != null && shouldIncludeMembers(pubannot)) {
 						for (Element encelem : pe.getEnclosedElements()) {
 							if (incstate.shouldIncludeMember(encelem)) {
-								addRelatedElements(encelem, states, dependentstack);
+								pending.add(new RelatedWork(encelem, e));
 							}
 						}
 					}
@@ -1076,12 +1909,12 @@ public class ApiExtractProcessor implements Processor {
 				TypeElement te = (TypeElement) e;
 				if (!incstate.kindChecked) {
 					incstate.kindChecked = true;
-					addRelatedElements(te.getSuperclass(), states, dependentstack);
+					pending.add(new RelatedWork(te.getSuperclass(), e));
 					for (TypeMirror itf : te.getInterfaces()) {
-						addRelatedElements(itf, states, dependentstack);
+						pending.add(new RelatedWork(itf, e));
 					}
 					for (TypeParameterElement tpe : te.getTypeParameters()) {
-						addRelatedElements(tpe, states, dependentstack);
+						pending.add(new RelatedWork(tpe, e));
 					}
 				}
 				if (!incstate.membersAdded) {
@@ -1097,7 +1930,7 @@ public class ApiExtractProcessor implements Processor {
 						//include the types as well
 						for (Element encelem : te.getEnclosedElements()) {
 							if (incstate.shouldIncludeMember(encelem)) {
-								addRelatedElements(encelem, states, dependentstack);
+								pending.add(new RelatedWork(encelem, e));
 							}
 						}
 					} else if (shouldincludemembers == null) {
@@ -1107,7 +1940,7 @@ public class ApiExtractProcessor implements Processor {
 								continue;
 							}
 							if (incstate.shouldIncludeMember(encelem)) {
-								addRelatedElements(encelem, states, dependentstack);
+								pending.add(new RelatedWork(encelem, e));
 							}
 						}
 					}
@@ -1121,14 +1954,14 @@ public class ApiExtractProcessor implements Processor {
 				if (!incstate.kindChecked) {
 					incstate.kindChecked = true;
 					for (VariableElement ve : ee.getParameters()) {
-						addRelatedElements(ve, states, dependentstack);
+						pending.add(new RelatedWork(ve, e));
 					}
-					addRelatedElements(ee.getReturnType(), states, dependentstack);
+					pending.add(new RelatedWork(ee.getReturnType(), e));
 					for (TypeMirror tt : ee.getThrownTypes()) {
-						addRelatedElements(tt, states, dependentstack);
+						pending.add(new RelatedWork(tt, e));
 					}
 					for (TypeParameterElement tpe : ee.getTypeParameters()) {
-						addRelatedElements(tpe, states, dependentstack);
+						pending.add(new RelatedWork(tpe, e));
 					}
 				}
 				break;
@@ -1139,7 +1972,7 @@ public class ApiExtractProcessor implements Processor {
 				VariableElement ve = (VariableElement) e;
 				if (!incstate.kindChecked) {
 					incstate.kindChecked = true;
-					addRelatedElements(ve.asType(), states, dependentstack);
+					pending.add(new RelatedWork(ve.asType(), e));
 				}
 				break;
 			}
@@ -1148,7 +1981,7 @@ public class ApiExtractProcessor implements Processor {
 				if (!incstate.kindChecked) {
 					incstate.kindChecked = true;
 					for (TypeMirror b : tpe.getBounds()) {
-						addRelatedElements(b, states, dependentstack);
+						pending.add(new RelatedWork(b, e));
 					}
 				}
 				break;
@@ -1168,8 +2001,7 @@ public class ApiExtractProcessor implements Processor {
 		}
 	}
 
-	private void addRelatedElements(TypeMirror tm, Map<Element, InclusionState> states,
-			LinkedList<Element> dependentstack) {
+	private static void expandRelatedElements(TypeMirror tm, Element includer, List<RelatedWork> pending) {
 		if (tm == null) {
 			return;
 		}
@@ -1177,43 +2009,43 @@ public class ApiExtractProcessor implements Processor {
 		switch (tmkind) {
 			case ARRAY: {
 				ArrayType at = (ArrayType) tm;
-				addRelatedElements(at.getComponentType(), states, dependentstack);
+				pending.add(new RelatedWork(at.getComponentType(), includer));
 				break;
 			}
 			case DECLARED: {
 				DeclaredType dt = (DeclaredType) tm;
 				TypeElement elem = (TypeElement) dt.asElement();
-				addRelatedElements(elem, states, dependentstack);
-				addRelatedElements(dt.getEnclosingType(), states, dependentstack);
+				pending.add(new RelatedWork(elem, includer));
+				pending.add(new RelatedWork(dt.getEnclosingType(), includer));
 				for (TypeMirror ta : dt.getTypeArguments()) {
-					addRelatedElements(ta, states, dependentstack);
+					pending.add(new RelatedWork(ta, includer));
 				}
 				break;
 			}
 			case INTERSECTION: {
 				IntersectionType it = (IntersectionType) tm;
 				for (TypeMirror itm : it.getBounds()) {
-					addRelatedElements(itm, states, dependentstack);
+					pending.add(new RelatedWork(itm, includer));
 				}
 				break;
 			}
 			case TYPEVAR: {
 				TypeVariable tv = (TypeVariable) tm;
 				TypeParameterElement elem = (TypeParameterElement) tv.asElement();
-				addRelatedElements(elem, states, dependentstack);
+				pending.add(new RelatedWork(elem, includer));
 				break;
 			}
 			case UNION: {
 				UnionType ut = (UnionType) tm;
 				for (TypeMirror alt : ut.getAlternatives()) {
-					addRelatedElements(alt, states, dependentstack);
+					pending.add(new RelatedWork(alt, includer));
 				}
 				break;
 			}
 			case WILDCARD: {
 				WildcardType wt = (WildcardType) tm;
-				addRelatedElements(wt.getExtendsBound(), states, dependentstack);
-				addRelatedElements(wt.getSuperBound(), states, dependentstack);
+				pending.add(new RelatedWork(wt.getExtendsBound(), includer));
+				pending.add(new RelatedWork(wt.getSuperBound(), includer));
 				break;
 			}
 			case EXECUTABLE: {
@@ -1265,7 +2097,7 @@ public class ApiExtractProcessor implements Processor {
 		return createSignature(ve.asType());
 	}
 
-	private String createSignature(TypeMirror type) {
+	String createSignature(TypeMirror type) {
 		SignatureWriter writer = new SignatureWriter();
 		appendSignature(type, writer);
 		return writer.toString();
@@ -1393,7 +2225,7 @@ public class ApiExtractProcessor implements Processor {
 	private void appendDeclaredTypeSignatureImpl(SignatureVisitor writer, DeclaredType dt, boolean callend) {
 		TypeMirror enctype = dt.getEnclosingType();
 		TypeElement dtelem = (TypeElement) dt.asElement();
-		String internalname = getInternalName(dtelem);
+		String internalname = symbols.getInternalName(dtelem);
 		if (enctype.getKind() != TypeKind.NONE) {
 			appendDeclaredTypeSignatureImpl(writer, (DeclaredType) enctype, false);
 			writer.visitInnerClassType(dtelem.getSimpleName().toString());
@@ -1487,7 +2319,7 @@ public class ApiExtractProcessor implements Processor {
 	private String getDeclaredTypeInternalName(TypeMirror itftm) {
 		DeclaredType dt = (DeclaredType) itftm;
 		TypeElement e = (TypeElement) dt.asElement();
-		String intname = getInternalName(e);
+		String intname = symbols.getInternalName(e);
 		return intname;
 	}
 
@@ -1573,130 +2405,38 @@ public class ApiExtractProcessor implements Processor {
 		return false;
 	}
 
-	private String getDescriptor(ExecutableElement ee, List<TypeElement> implicitparameters) {
-		List<? extends VariableElement> params = ee.getParameters();
-		StringBuilder sb = new StringBuilder();
-		sb.append('(');
-		for (TypeElement impp : implicitparameters) {
-			sb.append(getDescriptor(impp.asType()));
-		}
-		for (VariableElement ptm : params) {
-			sb.append(getDescriptor(ptm.asType()));
-		}
-		sb.append(')');
-		sb.append(getDescriptor(ee.getReturnType()));
-		return sb.toString();
-	}
-
-	private String getDescriptor(TypeMirror tm) {
-		TypeKind kind = tm.getKind();
-		switch (kind) {
-			case ARRAY: {
-				return "[" + getDescriptor(((ArrayType) tm).getComponentType());
-			}
-			case BOOLEAN: {
-				return "Z";
-			}
-			case BYTE: {
-				return "B";
-			}
-			case CHAR: {
-				return "C";
-			}
-			case DOUBLE: {
-				return "D";
-			}
-			case FLOAT: {
-				return "F";
-			}
-			case INT: {
-				return "I";
-			}
-			case LONG: {
-				return "J";
-			}
-			case SHORT: {
-				return "S";
-			}
-			case DECLARED: {
-				TypeElement elem = (TypeElement) ((DeclaredType) tm).asElement();
-				return "L" + getInternalName(elem) + ";";
-			}
-			case VOID: {
-				return "V";
-			}
-			case EXECUTABLE: {
-				ExecutableType et = (ExecutableType) tm;
-				List<? extends TypeMirror> params = et.getParameterTypes();
-				StringBuilder sb = new StringBuilder();
-				sb.append('(');
-				sb.append(')');
-				for (TypeMirror ptm : params) {
-					sb.append(getDescriptor(ptm));
-				}
-				sb.append(getDescriptor(et.getReturnType()));
-				return sb.toString();
-			}
-			case TYPEVAR: {
-				TypeVariable tv = (TypeVariable) tm;
-				TypeParameterElement elem = (TypeParameterElement) tv.asElement();
-				List<? extends TypeMirror> bounds = elem.getBounds();
-				if (bounds.isEmpty()) {
-					return "Ljava/lang/Object;";
-				}
-				return getDescriptor(bounds.get(0));
-			}
-			case ERROR:
-			case INTERSECTION:
-			case UNION:
-			case WILDCARD:
-			default: {
-				throw new IllegalArgumentException(kind.toString());
-			}
+	private void addInnerClassAttributes(List<ApiMemberModel> members, TypeElement type) {
+		if (type == null) {
+			return;
 		}
-	}
+		if (type.getNestingKind() == NestingKind.MEMBER) {
+			TypeElement enctype = (TypeElement) type.getEnclosingElement();
+			addInnerClassAttributes(members, enctype);
 
-	private String getInternalName(TypeMirror tm) {
-		TypeKind kind = tm.getKind();
-		switch (kind) {
-			case DECLARED: {
-				TypeElement elem = (TypeElement) ((DeclaredType) tm).asElement();
-				return getInternalName(elem);
-			}
-			case TYPEVAR: {
-				TypeVariable tv = (TypeVariable) tm;
-				return getInternalName(tv.getUpperBound());
-			}
-			case INTERSECTION: {
-				IntersectionType is = (IntersectionType) tm;
-				List<? extends TypeMirror> bounds = is.getBounds();
-				if (bounds == null || bounds.isEmpty()) {
-					return null;
-				}
-				return getInternalName(bounds.get(0));
-			}
-			default: {
-				throw new IllegalArgumentException(kind.toString());
+			if (classpathTypeCache == null) {
+				members.add(createInnerClassAttribute(type, enctype));
+			} else {
+				members.add(classpathTypeCache.get(type).getInnerClassAttribute());
 			}
 		}
 	}
 
-	private String getInternalName(TypeElement type) {
-		return elements.getBinaryName(type).toString().replace('.', '/');
+	private ApiInnerClassModel createInnerClassAttribute(TypeElement type, TypeElement enctype) {
+		int access = getInnerClassModifierAccessOpcode(type);
+		return new ApiInnerClassModel(symbols.getInternalName(type), symbols.getInternalName(enctype),
+				type.getSimpleName().toString(), access);
 	}
 
-	private void writeInnerClassAttributes(ClassWriter cw, TypeElement type) {
-		if (type == null) {
-			return;
-		}
+	private ClasspathTypeCache.TypeMetadata createTypeMetadata(TypeElement type) {
+		ApiInnerClassModel innerclassattr = null;
 		if (type.getNestingKind() == NestingKind.MEMBER) {
-			TypeElement enctype = (TypeElement) type.getEnclosingElement();
-			writeInnerClassAttributes(cw, enctype);
-
-			int access = getInnerClassModifierAccessOpcode(type);
-			cw.visitInnerClass(getInternalName(type), getInternalName(enctype), type.getSimpleName().toString(),
-					access);
+			innerclassattr = createInnerClassAttribute(type, (TypeElement) type.getEnclosingElement());
+		}
+		RetentionPolicy retention = null;
+		if (type.getKind() == ElementKind.ANNOTATION_TYPE) {
+			retention = AnnotationModelFactory.resolveRetentionPolicy(type);
 		}
+		return new ClasspathTypeCache.TypeMetadata(innerclassattr, retention);
 	}
 
 	private int getInnerClassModifierAccessOpcode(TypeElement e) {
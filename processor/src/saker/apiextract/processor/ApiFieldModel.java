@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Model of a field or enum constant.
+ */
+final class ApiFieldModel extends ApiMemberModel {
+	private final int access;
+	private final String name;
+	private final String descriptor;
+	private final String signature;
+	private final Object constantValue;
+	private final List<ApiAnnotationModel> annotations;
+
+	public ApiFieldModel(int access, String name, String descriptor, String signature, Object constantValue,
+			List<ApiAnnotationModel> annotations) {
+		this.access = access;
+		this.name = name;
+		this.descriptor = descriptor;
+		this.signature = signature;
+		this.constantValue = constantValue;
+		this.annotations = ApiTypeModel.immutableList(annotations);
+	}
+
+	public int getAccess() {
+		return access;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getDescriptor() {
+		return descriptor;
+	}
+
+	public String getSignature() {
+		return signature;
+	}
+
+	/**
+	 * Gets the <code>ConstantValue</code> of the field.
+	 * 
+	 * @return The boxed constant value or <code>null</code> if none.
+	 */
+	public Object getConstantValue() {
+		return constantValue;
+	}
+
+	public List<ApiAnnotationModel> getAnnotations() {
+		return annotations;
+	}
+
+	@Override
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeByte(TAG_FIELD);
+		out.writeInt(access);
+		out.writeUTF(name);
+		out.writeUTF(descriptor);
+		ApiTypeModel.writeNullableString(out, signature);
+		if (constantValue == null) {
+			out.writeBoolean(false);
+		} else {
+			out.writeBoolean(true);
+			ApiAnnotationModel.writeValue(out, constantValue);
+		}
+		ApiAnnotationModel.writeAnnotations(out, annotations);
+	}
+
+	static ApiFieldModel readContents(DataInput in) throws IOException {
+		int access = in.readInt();
+		String name = in.readUTF();
+		String descriptor = in.readUTF();
+		String signature = ApiTypeModel.readNullableString(in);
+		Object constantvalue = in.readBoolean() ? ApiAnnotationModel.readValue(in) : null;
+		List<ApiAnnotationModel> annotations = ApiAnnotationModel.readAnnotations(in);
+		return new ApiFieldModel(access, name, descriptor, signature, constantvalue, annotations);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode() * 31 + descriptor.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		ApiFieldModel other = (ApiFieldModel) obj;
+		return access == other.access && name.equals(other.name) && descriptor.equals(other.descriptor)
+				&& Objects.equals(signature, other.signature) && Objects.equals(constantValue, other.constantValue)
+				&& annotations.equals(other.annotations);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + name + " " + descriptor + "]";
+	}
+}
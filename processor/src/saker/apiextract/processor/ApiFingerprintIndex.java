@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index of the API fingerprints of the generated stub classes.
+ * <p>
+ * The fingerprint of a class is the hash of its serialized {@link ApiTypeModel}. If the fingerprint of a class is the
+ * same as in the index of the previous compilation, the stub class file doesn't need to be regenerated.
+ * <p>
+ * The entries are ordered by the binary names of the classes.
+ */
+final class ApiFingerprintIndex {
+	private static final int FORMAT_VERSION = 2;
+	/**
+	 * Version of the stub generation. Should be incremented when the generated bytes change for the same model, so
+	 * indexes written by earlier versions are invalidated.
+	 */
+	private static final int GENERATOR_VERSION = 1;
+	private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+	private final String generatorConfiguration;
+	private final Map<String, byte[]> fingerprints = new TreeMap<>();
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param generatorconfiguration
+	 *            The options of the stub generation which affect the generated bytes. The index is only used in the
+	 *            next compilation if they are the same.
+	 */
+	public ApiFingerprintIndex(String generatorconfiguration) {
+		this.generatorConfiguration = generatorconfiguration;
+	}
+
+	public void put(String binaryname, byte[] fingerprint) {
+		fingerprints.put(binaryname, fingerprint);
+	}
+
+	public byte[] get(String binaryname) {
+		return fingerprints.get(binaryname);
+	}
+
+	public boolean isSameFingerprint(String binaryname, byte[] fingerprint) {
+		byte[] fp = fingerprints.get(binaryname);
+		return fp != null && Arrays.equals(fp, fingerprint);
+	}
+
+	/**
+	 * Checks if this index contains the same classes with the same fingerprints as the argument.
+	 * 
+	 * @param other
+	 *            The other index. May be <code>null</code>.
+	 * @return <code>true</code> if the indexes are the same.
+	 */
+	public boolean isSameFingerprints(ApiFingerprintIndex other) {
+		if (other == null || other.fingerprints.size() != fingerprints.size()) {
+			return false;
+		}
+		for (Map.Entry<String, byte[]> entry : fingerprints.entrySet()) {
+			if (!other.isSameFingerprint(entry.getKey(), entry.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public Set<String> getBinaryNames() {
+		return Collections.unmodifiableSet(fingerprints.keySet());
+	}
+
+	public int size() {
+		return fingerprints.size();
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(GENERATOR_VERSION);
+		out.writeUTF(generatorConfiguration);
+		out.writeInt(fingerprints.size());
+		for (Map.Entry<String, byte[]> entry : fingerprints.entrySet()) {
+			out.writeUTF(entry.getKey());
+			byte[] fp = entry.getValue();
+			out.writeShort(fp.length);
+			out.write(fp);
+		}
+	}
+
+	/**
+	 * Reads an index from the given input.
+	 * 
+	 * @param in
+	 *            The input.
+	 * @param generatorconfiguration
+	 *            The current generator configuration.
+	 * @return The index, or <code>null</code> if it was written by a different version or generator configuration.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 */
+	public static ApiFingerprintIndex readFrom(DataInput in, String generatorconfiguration) throws IOException {
+		if (in.readInt() != FORMAT_VERSION || in.readInt() != GENERATOR_VERSION
+				|| !generatorconfiguration.equals(in.readUTF())) {
+			return null;
+		}
+		int count = in.readInt();
+		ApiFingerprintIndex result = new ApiFingerprintIndex(generatorconfiguration);
+		for (int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			byte[] fp = new byte[in.readUnsignedShort()];
+			in.readFully(fp);
+			result.fingerprints.put(name, fp);
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the API fingerprint of the given type.
+	 * <p>
+	 * This method is thread safe.
+	 * 
+	 * @param type
+	 *            The type model.
+	 * @return The fingerprint bytes.
+	 */
+	public static byte[] fingerprint(ApiTypeModel type) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(FINGERPRINT_ALGORITHM + " is not available.", e);
+		}
+		try (DataOutputStream out = new DataOutputStream(new DigestingOutputStream(digest))) {
+			type.writeTo(out);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to compute fingerprint of: " + type.getBinaryName(), e);
+		}
+		return digest.digest();
+	}
+
+	private static final class DigestingOutputStream extends OutputStream {
+		protected final MessageDigest digest;
+
+		public DigestingOutputStream(MessageDigest digest) {
+			this.digest = digest;
+		}
+
+		@Override
+		public void write(int b) {
+			digest.update((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			digest.update(b, off, len);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index of the types and members that are included in the API.
+ * <p>
+ * The index is written by {@link ApiExtractProcessor}, and it is used by {@link ApiStubExtractor} to create the stubs
+ * from the compiled class files without running the annotation processing again. As the annotations that drive the
+ * inclusion are not retained in the class files, the index contains the included fields and methods by name and
+ * descriptor, along with the properties that are computed by the processor: the access flags, the inner class
+ * attributes, and whether the constant value of a field is kept. The rest of the stubs is read from the class files.
+ * <p>
+ * The types are ordered by their internal names.
+ */
+final class ApiInclusionIndex {
+	private static final int FORMAT_VERSION = 1;
+
+	private static final byte FLAG_CONSTANT_VALUE = 1;
+
+	/**
+	 * An included field or method.
+	 */
+	public static final class MemberEntry {
+		protected final int access;
+		protected final String name;
+		protected final String descriptor;
+		protected final boolean constantValue;
+
+		public MemberEntry(int access, String name, String descriptor, boolean constantValue) {
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+			this.constantValue = constantValue;
+		}
+
+		public int getAccess() {
+			return access;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getDescriptor() {
+			return descriptor;
+		}
+
+		/**
+		 * Checks if the constant value of the field is part of the API.
+		 * 
+		 * @return <code>true</code> if the constant value should be kept.
+		 */
+		public boolean isConstantValue() {
+			return constantValue;
+		}
+	}
+
+	/**
+	 * An included type.
+	 * <p>
+	 * The order of the inner class attributes, fields and methods in the stub is recorded by the member kinds, which
+	 * contains the {@link ApiMemberModel} tag of each member in order.
+	 */
+	public static final class TypeEntry {
+		protected final int version;
+		protected final int access;
+		protected final String internalName;
+		protected final List<ApiInnerClassModel> innerClasses;
+		protected final List<MemberEntry> fields;
+		protected final List<MemberEntry> methods;
+		protected final byte[] memberKinds;
+
+		public TypeEntry(int version, int access, String internalName, List<ApiInnerClassModel> innerClasses,
+				List<MemberEntry> fields, List<MemberEntry> methods, byte[] memberKinds) {
+			if (memberKinds.length != innerClasses.size() + fields.size() + methods.size()) {
+				throw new IllegalArgumentException("Member kind count mismatch.");
+			}
+			this.version = version;
+			this.access = access;
+			this.internalName = internalName;
+			this.innerClasses = ApiTypeModel.immutableList(innerClasses);
+			this.fields = ApiTypeModel.immutableList(fields);
+			this.methods = ApiTypeModel.immutableList(methods);
+			this.memberKinds = memberKinds;
+		}
+
+		public int getVersion() {
+			return version;
+		}
+
+		public int getAccess() {
+			return access;
+		}
+
+		public String getInternalName() {
+			return internalName;
+		}
+
+		public List<ApiInnerClassModel> getInnerClasses() {
+			return innerClasses;
+		}
+
+		public List<MemberEntry> getFields() {
+			return fields;
+		}
+
+		public List<MemberEntry> getMethods() {
+			return methods;
+		}
+
+		public int getMemberCount() {
+			return memberKinds.length;
+		}
+
+		/**
+		 * Gets the kind of the member at the given index.
+		 * 
+		 * @param index
+		 *            The index of the member.
+		 * @return One of the <code>TAG_*</code> constants in {@link ApiMemberModel}.
+		 */
+		public byte getMemberKind(int index) {
+			return memberKinds[index];
+		}
+	}
+
+	private final Map<String, TypeEntry> types = new TreeMap<>();
+
+	public ApiInclusionIndex() {
+	}
+
+	/**
+	 * Adds the members of the given type model to the index.
+	 * 
+	 * @param type
+	 *            The type model.
+	 */
+	public void add(ApiTypeModel type) {
+		List<ApiInnerClassModel> innerclasses = new ArrayList<>();
+		List<MemberEntry> fields = new ArrayList<>();
+		List<MemberEntry> methods = new ArrayList<>();
+		List<ApiMemberModel> members = type.getMembers();
+		byte[] kinds = new byte[members.size()];
+		for (int i = 0; i < kinds.length; i++) {
+			ApiMemberModel m = members.get(i);
+			if (m instanceof ApiInnerClassModel) {
+				innerclasses.add((ApiInnerClassModel) m);
+				kinds[i] = ApiMemberModel.TAG_INNER_CLASS;
+			} else if (m instanceof ApiFieldModel) {
+				ApiFieldModel f = (ApiFieldModel) m;
+				fields.add(new MemberEntry(f.getAccess(), f.getName(), f.getDescriptor(),
+						f.getConstantValue() != null));
+				kinds[i] = ApiMemberModel.TAG_FIELD;
+			} else if (m instanceof ApiMethodModel) {
+				ApiMethodModel mm = (ApiMethodModel) m;
+				methods.add(new MemberEntry(mm.getAccess(), mm.getName(), mm.getDescriptor(), false));
+				kinds[i] = ApiMemberModel.TAG_METHOD;
+			} else {
+				throw new IllegalArgumentException("Unknown member: " + m);
+			}
+		}
+		types.put(type.getInternalName(), new TypeEntry(type.getVersion(), type.getAccess(), type.getInternalName(),
+				innerclasses, fields, methods, kinds));
+	}
+
+	public Collection<TypeEntry> getTypes() {
+		return Collections.unmodifiableCollection(types.values());
+	}
+
+	public int size() {
+		return types.size();
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(types.size());
+		for (TypeEntry t : types.values()) {
+			out.writeInt(t.version);
+			out.writeInt(t.access);
+			out.writeUTF(t.internalName);
+			out.writeInt(t.memberKinds.length);
+			Iterator<ApiInnerClassModel> innerclasses = t.innerClasses.iterator();
+			Iterator<MemberEntry> fields = t.fields.iterator();
+			Iterator<MemberEntry> methods = t.methods.iterator();
+			for (byte kind : t.memberKinds) {
+				switch (kind) {
+					case ApiMemberModel.TAG_INNER_CLASS: {
+						//writes the tag as well
+						innerclasses.next().writeTo(out);
+						break;
+					}
+					case ApiMemberModel.TAG_FIELD: {
+						out.writeByte(kind);
+						writeMember(out, fields.next());
+						break;
+					}
+					case ApiMemberModel.TAG_METHOD: {
+						out.writeByte(kind);
+						writeMember(out, methods.next());
+						break;
+					}
+					default: {
+						throw new IllegalStateException("Unknown member kind: " + kind);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads an index from the given input.
+	 * 
+	 * @param in
+	 *            The input.
+	 * @return The index.
+	 * @throws IOException
+	 *             In case of I/O error, or if the index format is not supported.
+	 */
+	public static ApiInclusionIndex readFrom(DataInput in) throws IOException {
+		int version = in.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("Unsupported inclusion index format version: " + version);
+		}
+		int count = in.readInt();
+		ApiInclusionIndex result = new ApiInclusionIndex();
+		for (int i = 0; i < count; i++) {
+			int classversion = in.readInt();
+			int access = in.readInt();
+			String internalname = in.readUTF();
+			int membercount = in.readInt();
+			List<ApiInnerClassModel> innerclasses = new ArrayList<>();
+			List<MemberEntry> fields = new ArrayList<>();
+			List<MemberEntry> methods = new ArrayList<>();
+			byte[] kinds = new byte[membercount];
+			for (int j = 0; j < membercount; j++) {
+				byte kind = in.readByte();
+				switch (kind) {
+					case ApiMemberModel.TAG_INNER_CLASS: {
+						innerclasses.add(ApiInnerClassModel.readContents(in));
+						break;
+					}
+					case ApiMemberModel.TAG_FIELD: {
+						fields.add(readMember(in));
+						break;
+					}
+					case ApiMemberModel.TAG_METHOD: {
+						methods.add(readMember(in));
+						break;
+					}
+					default: {
+						throw new IOException("Unknown member kind: " + kind + " in: " + internalname);
+					}
+				}
+				kinds[j] = kind;
+			}
+			result.types.put(internalname,
+					new TypeEntry(classversion, access, internalname, innerclasses, fields, methods, kinds));
+		}
+		return result;
+	}
+
+	private static void writeMember(DataOutput out, MemberEntry m) throws IOException {
+		out.writeInt(m.access);
+		out.writeUTF(m.name);
+		out.writeUTF(m.descriptor);
+		out.writeByte(m.constantValue ? FLAG_CONSTANT_VALUE : 0);
+	}
+
+	private static MemberEntry readMember(DataInput in) throws IOException {
+		int access = in.readInt();
+		String name = in.readUTF();
+		String descriptor = in.readUTF();
+		boolean constantvalue = (in.readByte() & FLAG_CONSTANT_VALUE) != 0;
+		return new MemberEntry(access, name, descriptor, constantvalue);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Model of an <code>InnerClasses</code> attribute entry.
+ */
+final class ApiInnerClassModel extends ApiMemberModel {
+	private final String name;
+	private final String outerName;
+	private final String innerName;
+	private final int access;
+
+	public ApiInnerClassModel(String name, String outerName, String innerName, int access) {
+		this.name = name;
+		this.outerName = outerName;
+		this.innerName = innerName;
+		this.access = access;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getOuterName() {
+		return outerName;
+	}
+
+	public String getInnerName() {
+		return innerName;
+	}
+
+	public int getAccess() {
+		return access;
+	}
+
+	@Override
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeByte(TAG_INNER_CLASS);
+		out.writeUTF(name);
+		ApiTypeModel.writeNullableString(out, outerName);
+		ApiTypeModel.writeNullableString(out, innerName);
+		out.writeInt(access);
+	}
+
+	static ApiInnerClassModel readContents(DataInput in) throws IOException {
+		String name = in.readUTF();
+		String outername = ApiTypeModel.readNullableString(in);
+		String innername = ApiTypeModel.readNullableString(in);
+		int access = in.readInt();
+		return new ApiInnerClassModel(name, outername, innername, access);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		ApiInnerClassModel other = (ApiInnerClassModel) obj;
+		return access == other.access && name.equals(other.name) && Objects.equals(outerName, other.outerName)
+				&& Objects.equals(innerName, other.innerName);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + name + "]";
+	}
+}
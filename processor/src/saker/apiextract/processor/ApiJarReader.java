@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a JAR file by memory mapping it.
+ * <p>
+ * Only the central directory is parsed when the reader is opened. The contents of the entries are read on demand, and
+ * {@link #getBytes(String)} may be called concurrently from multiple threads.
+ */
+final class ApiJarReader implements Closeable {
+	private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20;
+	private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+
+	private static final class EntryInfo {
+		protected final int method;
+		protected final long compressedSize;
+		protected final long size;
+		protected final long localHeaderOffset;
+
+		public EntryInfo(int method, long compressedSize, long size, long localHeaderOffset) {
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final Map<String, EntryInfo> entries;
+
+	private ApiJarReader(FileChannel channel, MappedByteBuffer buffer, Map<String, EntryInfo> entries) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.entries = entries;
+	}
+
+	/**
+	 * Opens the JAR at the given path.
+	 * 
+	 * @param path
+	 *            The path of the JAR.
+	 * @return The opened reader.
+	 * @throws IOException
+	 *             If the file cannot be read, or it is not a valid ZIP archive.
+	 */
+	public static ApiJarReader open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new ZipException("JAR file is too large: " + path + " (" + size + " bytes)");
+			}
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			Map<String, EntryInfo> entries = readCentralDirectory(buffer);
+			return new ApiJarReader(channel, buffer, entries);
+		} catch (IOException | RuntimeException e) {
+			try {
+				channel.close();
+			} catch (IOException e2) {
+				e.addSuppressed(e2);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the names of the entries in the order of the central directory.
+	 * 
+	 * @return The entry names.
+	 */
+	public Set<String> getEntryNames() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	public boolean hasEntry(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Reads the uncompressed contents of an entry.
+	 * <p>
+	 * This method is thread safe.
+	 * 
+	 * @param name
+	 *            The entry name.
+	 * @return The contents, or <code>null</code> if there is no entry with the given name.
+	 * @throws IOException
+	 *             If the entry data is malformed.
+	 */
+	public byte[] getBytes(String name) throws IOException {
+		EntryInfo info = entries.get(name);
+		if (info == null) {
+			return null;
+		}
+		int lfh = toIntOffset(info.localHeaderOffset);
+		if (buffer.getInt(lfh) != LOCAL_FILE_HEADER_SIGNATURE) {
+			throw new ZipException("Invalid local file header for entry: " + name);
+		}
+		int dataoffset = lfh + 30 + Short.toUnsignedInt(buffer.getShort(lfh + 26))
+				+ Short.toUnsignedInt(buffer.getShort(lfh + 28));
+		int csize = toIntOffset(info.compressedSize);
+		int size = toIntOffset(info.size);
+		ByteBuffer data = buffer.duplicate();
+		data.position(dataoffset);
+		switch (info.method) {
+			case METHOD_STORED: {
+				byte[] result = new byte[size];
+				data.get(result);
+				return result;
+			}
+			case METHOD_DEFLATED: {
+				//an extra zero byte is appended to the input, as the nowrap inflater may require it
+				byte[] input = new byte[csize + 1];
+				data.get(input, 0, csize);
+				byte[] result = new byte[size];
+				Inflater inflater = new Inflater(true);
+				try {
+					inflater.setInput(input);
+					int len = 0;
+					while (len < size) {
+						int n = inflater.inflate(result, len, size - len);
+						if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+							break;
+						}
+						len += n;
+					}
+					if (len != size) {
+						throw new ZipException("Unexpected end of compressed data for entry: " + name);
+					}
+				} catch (DataFormatException e) {
+					throw new ZipException("Invalid compressed data for entry: " + name + " (" + e + ")");
+				} finally {
+					inflater.end();
+				}
+				return result;
+			}
+			default: {
+				throw new ZipException("Unsupported compression method " + info.method + " for entry: " + name);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static Map<String, EntryInfo> readCentralDirectory(ByteBuffer buffer) throws IOException {
+		int limit = buffer.limit();
+		int eocd = -1;
+		for (int i = limit - END_OF_CENTRAL_DIRECTORY_SIZE, end = Math.max(0, i - MAX_COMMENT_LENGTH); i >= end; i--) {
+			if (buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				eocd = i;
+				break;
+			}
+		}
+		if (eocd < 0) {
+			throw new ZipException("End of central directory not found.");
+		}
+		long count = Short.toUnsignedInt(buffer.getShort(eocd + 10));
+		long cdoffset = Integer.toUnsignedLong(buffer.getInt(eocd + 16));
+		int locator = eocd - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE;
+		if (locator >= 0 && buffer.getInt(locator) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+			int eocd64 = toIntOffset(buffer.getLong(locator + 8));
+			if (buffer.getInt(eocd64) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				throw new ZipException("Invalid ZIP64 end of central directory.");
+			}
+			count = buffer.getLong(eocd64 + 32);
+			cdoffset = buffer.getLong(eocd64 + 48);
+		}
+		Map<String, EntryInfo> result = new LinkedHashMap<>();
+		int pos = toIntOffset(cdoffset);
+		byte[] namebuf = new byte[256];
+		for (long i = 0; i < count; i++) {
+			if (buffer.getInt(pos) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid central directory header at offset: " + pos);
+			}
+			int method = Short.toUnsignedInt(buffer.getShort(pos + 10));
+			long csize = Integer.toUnsignedLong(buffer.getInt(pos + 20));
+			long size = Integer.toUnsignedLong(buffer.getInt(pos + 24));
+			int namelen = Short.toUnsignedInt(buffer.getShort(pos + 28));
+			int extralen = Short.toUnsignedInt(buffer.getShort(pos + 30));
+			int commentlen = Short.toUnsignedInt(buffer.getShort(pos + 32));
+			long lfhoffset = Integer.toUnsignedLong(buffer.getInt(pos + 42));
+			if (namebuf.length < namelen) {
+				namebuf = new byte[namelen];
+			}
+			for (int j = 0; j < namelen; j++) {
+				namebuf[j] = buffer.get(pos + 46 + j);
+			}
+			String name = new String(namebuf, 0, namelen, StandardCharsets.UTF_8);
+			if (size == ZIP64_MAGIC || csize == ZIP64_MAGIC || lfhoffset == ZIP64_MAGIC) {
+				//the ZIP64 extra field contains the values in this order, only for the fields that are set to the magic
+				for (int ep = pos + 46 + namelen, eend = ep + extralen; ep + 4 <= eend;) {
+					int id = Short.toUnsignedInt(buffer.getShort(ep));
+					int len = Short.toUnsignedInt(buffer.getShort(ep + 2));
+					if (id == ZIP64_EXTRA_ID) {
+						int vp = ep + 4;
+						if (size == ZIP64_MAGIC) {
+							size = buffer.getLong(vp);
+							vp += 8;
+						}
+						if (csize == ZIP64_MAGIC) {
+							csize = buffer.getLong(vp);
+							vp += 8;
+						}
+						if (lfhoffset == ZIP64_MAGIC) {
+							lfhoffset = buffer.getLong(vp);
+						}
+						break;
+					}
+					ep += 4 + len;
+				}
+			}
+			result.put(name, new EntryInfo(method, csize, size, lfhoffset));
+			pos += 46 + namelen + extralen + commentlen;
+		}
+		return result;
+	}
+
+	private static int toIntOffset(long value) throws ZipException {
+		if (value < 0 || value > Integer.MAX_VALUE) {
+			throw new ZipException("Offset out of range: " + value);
+		}
+		return (int) value;
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the API stubs to a JAR file with reproducible contents.
+ * <p>
+ * The entries are compressed independently with {@link #compress(String, byte[])}, which may be called concurrently.
+ * The archive is written with the entries sorted by name, with the manifest first, and with fixed timestamps. The ZIP64
+ * end of central directory is written if the number of entries or the archive size requires it.
+ */
+final class ApiJarWriter {
+	public static final String MANIFEST_ENTRY_NAME = "META-INF/MANIFEST.MF";
+
+	private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+	private static final int VERSION_DEFAULT = 20;
+	private static final int VERSION_ZIP64 = 45;
+	/**
+	 * General purpose flag for UTF-8 encoded entry names.
+	 */
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+	/**
+	 * 00:00:00 in MS-DOS time format.
+	 */
+	private static final int FIXED_DOS_TIME = 0;
+	/**
+	 * 1980-01-01 in MS-DOS date format.
+	 */
+	private static final int FIXED_DOS_DATE = (1 << 5) | 1;
+
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+	private static final Comparator<CompressedEntry> ENTRY_ORDER = (l, r) -> {
+		boolean lman = MANIFEST_ENTRY_NAME.equals(l.name);
+		boolean rman = MANIFEST_ENTRY_NAME.equals(r.name);
+		if (lman != rman) {
+			return lman ? -1 : 1;
+		}
+		return l.name.compareTo(r.name);
+	};
+
+	/**
+	 * A JAR entry with its data already compressed.
+	 */
+	public static final class CompressedEntry {
+		protected final String name;
+		protected final byte[] nameBytes;
+		protected final int method;
+		protected final int crc;
+		protected final int size;
+		protected final byte[] data;
+		protected final int dataLength;
+
+		CompressedEntry(String name, int method, int crc, int size, byte[] data, int dataLength) {
+			this.name = name;
+			this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+			this.method = method;
+			this.crc = crc;
+			this.size = size;
+			this.data = data;
+			this.dataLength = dataLength;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private ApiJarWriter() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Gets the bytes of the manifest that is written to the API JARs.
+	 * 
+	 * @return The manifest bytes.
+	 */
+	public static byte[] getManifestBytes() {
+		return "Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compresses the contents of an entry.
+	 * <p>
+	 * The data is stored without compression if deflating it doesn't make it smaller.
+	 * <p>
+	 * This method is thread safe.
+	 * 
+	 * @param name
+	 *            The name of the entry.
+	 * @param bytes
+	 *            The uncompressed contents.
+	 * @return The compressed entry.
+	 */
+	public static CompressedEntry compress(String name, byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		int crcval = (int) crc.getValue();
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			byte[] buf = new byte[bytes.length];
+			int len = 0;
+			while (!deflater.finished() && len < buf.length) {
+				len += deflater.deflate(buf, len, buf.length - len);
+			}
+			if (!deflater.finished()) {
+				//deflating doesn't reduce the size
+				return new CompressedEntry(name, METHOD_STORED, crcval, bytes.length, bytes, bytes.length);
+			}
+			return new CompressedEntry(name, METHOD_DEFLATED, crcval, bytes.length, buf, len);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Writes the JAR with the given entries.
+	 * <p>
+	 * The output stream is not closed.
+	 * 
+	 * @param os
+	 *            The output stream.
+	 * @param entries
+	 *            The entries. The names must be unique.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 */
+	public static void write(OutputStream os, Collection<CompressedEntry> entries) throws IOException {
+		List<CompressedEntry> sorted = new ArrayList<>(entries);
+		sorted.sort(ENTRY_ORDER);
+
+		ByteBuffer buf = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+		long[] offsets = new long[sorted.size()];
+		long offset = 0;
+		for (int i = 0; i < offsets.length; i++) {
+			CompressedEntry e = sorted.get(i);
+			offsets[i] = offset;
+			buf.clear();
+			buf.putInt(LOCAL_FILE_HEADER_SIGNATURE);
+			buf.putShort((short) VERSION_DEFAULT);
+			buf.putShort((short) FLAG_UTF8);
+			buf.putShort((short) e.method);
+			buf.putShort((short) FIXED_DOS_TIME);
+			buf.putShort((short) FIXED_DOS_DATE);
+			buf.putInt(e.crc);
+			buf.putInt(e.dataLength);
+			buf.putInt(e.size);
+			buf.putShort((short) e.nameBytes.length);
+			buf.putShort((short) 0);
+			offset += writeBuffer(os, buf);
+			os.write(e.nameBytes);
+			os.write(e.data, 0, e.dataLength);
+			offset += e.nameBytes.length + e.dataLength;
+		}
+
+		long cdoffset = offset;
+		for (int i = 0; i < offsets.length; i++) {
+			CompressedEntry e = sorted.get(i);
+			boolean zip64offset = offsets[i] >= ZIP64_MAGIC;
+			buf.clear();
+			buf.putInt(CENTRAL_DIRECTORY_HEADER_SIGNATURE);
+			buf.putShort((short) (zip64offset ? VERSION_ZIP64 : VERSION_DEFAULT));
+			buf.putShort((short) (zip64offset ? VERSION_ZIP64 : VERSION_DEFAULT));
+			buf.putShort((short) FLAG_UTF8);
+			buf.putShort((short) e.method);
+			buf.putShort((short) FIXED_DOS_TIME);
+			buf.putShort((short) FIXED_DOS_DATE);
+			buf.putInt(e.crc);
+			buf.putInt(e.dataLength);
+			buf.putInt(e.size);
+			buf.putShort((short) e.nameBytes.length);
+			buf.putShort((short) (zip64offset ? 12 : 0));
+			//comment length, disk number start, internal and external attributes
+			buf.putShort((short) 0);
+			buf.putShort((short) 0);
+			buf.putShort((short) 0);
+			buf.putInt(0);
+			buf.putInt((int) (zip64offset ? ZIP64_MAGIC : offsets[i]));
+			offset += writeBuffer(os, buf);
+			os.write(e.nameBytes);
+			offset += e.nameBytes.length;
+			if (zip64offset) {
+				buf.clear();
+				buf.putShort((short) ZIP64_EXTRA_ID);
+				buf.putShort((short) 8);
+				buf.putLong(offsets[i]);
+				offset += writeBuffer(os, buf);
+			}
+		}
+		long cdsize = offset - cdoffset;
+		int count = offsets.length;
+
+		if (count >= ZIP64_MAGIC_COUNT || cdoffset >= ZIP64_MAGIC || cdsize >= ZIP64_MAGIC) {
+			long eocd64offset = offset;
+			buf.clear();
+			buf.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+			//size of the remaining record
+			buf.putLong(44);
+			buf.putShort((short) VERSION_ZIP64);
+			buf.putShort((short) VERSION_ZIP64);
+			buf.putInt(0);
+			buf.putInt(0);
+			buf.putLong(count);
+			buf.putLong(count);
+			buf.putLong(cdsize);
+			buf.putLong(cdoffset);
+
+			buf.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+			buf.putInt(0);
+			buf.putLong(eocd64offset);
+			buf.putInt(1);
+			writeBuffer(os, buf);
+		}
+		buf.clear();
+		buf.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+		buf.putShort((short) 0);
+		buf.putShort((short) 0);
+		buf.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+		buf.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+		buf.putInt((int) Math.min(cdsize, ZIP64_MAGIC));
+		buf.putInt((int) Math.min(cdoffset, ZIP64_MAGIC));
+		buf.putShort((short) 0);
+		writeBuffer(os, buf);
+	}
+
+	private static int writeBuffer(OutputStream os, ByteBuffer buf) throws IOException {
+		int len = buf.position();
+		os.write(buf.array(), 0, len);
+		return len;
+	}
+}
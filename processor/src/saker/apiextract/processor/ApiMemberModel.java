@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Common superclass of the member models of an {@link ApiTypeModel}.
+ */
+abstract class ApiMemberModel {
+	static final byte TAG_INNER_CLASS = 1;
+	static final byte TAG_FIELD = 2;
+	static final byte TAG_METHOD = 3;
+
+	ApiMemberModel() {
+	}
+
+	public abstract void writeTo(DataOutput out) throws IOException;
+
+	public static ApiMemberModel readFrom(DataInput in) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+			case TAG_INNER_CLASS: {
+				return ApiInnerClassModel.readContents(in);
+			}
+			case TAG_FIELD: {
+				return ApiFieldModel.readContents(in);
+			}
+			case TAG_METHOD: {
+				return ApiMethodModel.readContents(in);
+			}
+			default: {
+				throw new IOException("Invalid member tag: " + tag);
+			}
+		}
+	}
+}
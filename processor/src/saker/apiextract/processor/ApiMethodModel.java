@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Model of a method or constructor.
+ */
+final class ApiMethodModel extends ApiMemberModel {
+	private static final String[] EMPTY_STRING_ARRAY = {};
+	private static final int[] EMPTY_INT_ARRAY = {};
+
+	private final int access;
+	private final String name;
+	private final String descriptor;
+	private final String signature;
+	private final String[] exceptions;
+	private final String[] parameterNames;
+	private final int[] parameterAccess;
+	private final List<ApiAnnotationModel> annotations;
+	private final Object defaultValue;
+
+	public ApiMethodModel(int access, String name, String descriptor, String signature, String[] exceptions,
+			String[] parameterNames, int[] parameterAccess, List<ApiAnnotationModel> annotations,
+			Object defaultValue) {
+		if (parameterNames.length != parameterAccess.length) {
+			throw new IllegalArgumentException("Parameter name and access count mismatch.");
+		}
+		this.access = access;
+		this.name = name;
+		this.descriptor = descriptor;
+		this.signature = signature;
+		this.exceptions = exceptions;
+		this.parameterNames = parameterNames.length == 0 ? EMPTY_STRING_ARRAY : parameterNames;
+		this.parameterAccess = parameterAccess.length == 0 ? EMPTY_INT_ARRAY : parameterAccess;
+		this.annotations = ApiTypeModel.immutableList(annotations);
+		this.defaultValue = defaultValue;
+	}
+
+	public int getAccess() {
+		return access;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getDescriptor() {
+		return descriptor;
+	}
+
+	public String getSignature() {
+		return signature;
+	}
+
+	/**
+	 * Gets the internal names of the declared thrown types.
+	 * <p>
+	 * The returned array must not be modified.
+	 * 
+	 * @return The exception names or <code>null</code> if there are none.
+	 */
+	public String[] getExceptions() {
+		return exceptions;
+	}
+
+	public int getParameterCount() {
+		return parameterNames.length;
+	}
+
+	public String getParameterName(int index) {
+		return parameterNames[index];
+	}
+
+	public int getParameterAccess(int index) {
+		return parameterAccess[index];
+	}
+
+	public List<ApiAnnotationModel> getAnnotations() {
+		return annotations;
+	}
+
+	/**
+	 * Gets the default value of the annotation method.
+	 * 
+	 * @return The default value in the format specified by {@link ApiAnnotationModel#getValues()} or
+	 *             <code>null</code> if none.
+	 */
+	public Object getDefaultValue() {
+		return defaultValue;
+	}
+
+	@Override
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeByte(TAG_METHOD);
+		out.writeInt(access);
+		out.writeUTF(name);
+		out.writeUTF(descriptor);
+		ApiTypeModel.writeNullableString(out, signature);
+		ApiTypeModel.writeNullableStringArray(out, exceptions);
+		out.writeInt(parameterNames.length);
+		for (int i = 0; i < parameterNames.length; i++) {
+			out.writeUTF(parameterNames[i]);
+			out.writeInt(parameterAccess[i]);
+		}
+		ApiAnnotationModel.writeAnnotations(out, annotations);
+		if (defaultValue == null) {
+			out.writeBoolean(false);
+		} else {
+			out.writeBoolean(true);
+			ApiAnnotationModel.writeValue(out, defaultValue);
+		}
+	}
+
+	static ApiMethodModel readContents(DataInput in) throws IOException {
+		int access = in.readInt();
+		String name = in.readUTF();
+		String descriptor = in.readUTF();
+		String signature = ApiTypeModel.readNullableString(in);
+		String[] exceptions = ApiTypeModel.readNullableStringArray(in);
+		int paramcount = in.readInt();
+		String[] paramnames = new String[paramcount];
+		int[] paramaccess = new int[paramcount];
+		for (int i = 0; i < paramcount; i++) {
+			paramnames[i] = in.readUTF();
+			paramaccess[i] = in.readInt();
+		}
+		List<ApiAnnotationModel> annotations = ApiAnnotationModel.readAnnotations(in);
+		Object defaultvalue = in.readBoolean() ? ApiAnnotationModel.readValue(in) : null;
+		return new ApiMethodModel(access, name, descriptor, signature, exceptions, paramnames, paramaccess,
+				annotations, defaultvalue);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode() * 31 + descriptor.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		ApiMethodModel other = (ApiMethodModel) obj;
+		return access == other.access && name.equals(other.name) && descriptor.equals(other.descriptor)
+				&& Objects.equals(signature, other.signature) && Arrays.equals(exceptions, other.exceptions)
+				&& Arrays.equals(parameterNames, other.parameterNames)
+				&& Arrays.equals(parameterAccess, other.parameterAccess) && annotations.equals(other.annotations)
+				&& Objects.equals(defaultValue, other.defaultValue);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + name + descriptor + "]";
+	}
+}
@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import saker.build.thirdparty.org.objectweb.asm.AnnotationVisitor;
+import saker.build.thirdparty.org.objectweb.asm.ClassReader;
+import saker.build.thirdparty.org.objectweb.asm.ClassVisitor;
+import saker.build.thirdparty.org.objectweb.asm.FieldVisitor;
+import saker.build.thirdparty.org.objectweb.asm.MethodVisitor;
+import saker.build.thirdparty.org.objectweb.asm.Opcodes;
+
+/**
+ * Generates the API stubs from compiled class files based on an inclusion index.
+ * <p>
+ * The inclusion index is written by {@link ApiExtractProcessor} when the
+ * {@value ApiExtractProcessor#OPTION_INCLUSION_INDEX} option is set. It determines the included types and members,
+ * while the signatures, annotations, thrown types and annotation default values are read from the class files of the
+ * compilation. This allows regenerating the stubs with different settings without compiling the sources again.
+ * <p>
+ * The parameter names are only available if the sources were compiled with the <code>-parameters</code> option.
+ * <p>
+ * The classes are read and generated in parallel.
+ */
+public final class ApiStubExtractor {
+	private static final int CLASS_READER_FLAGS = ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES;
+
+	private ApiStubExtractor() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Generates the stubs for the types in the inclusion index.
+	 * 
+	 * @param index
+	 *            The inclusion index.
+	 * @param inputs
+	 *            The class directories or JARs to read the class files from. They are searched in order.
+	 * @param bodypolicy
+	 *            The method body policy of the stubs.
+	 * @param parameternames
+	 *            Whether to include the parameter names in the stubs.
+	 * @param threads
+	 *            The number of threads to use. If 1 or less, the stubs are generated on the calling thread.
+	 * @return The stub class file contents mapped to their entry names.
+	 * @throws IOException
+	 *             If a class file cannot be read, or it doesn't declare an indexed member.
+	 */
+	public static Map<String, byte[]> extract(ApiInclusionIndex index, List<Path> inputs,
+			ApiStubGenerator.BodyPolicy bodypolicy, boolean parameternames, int threads) throws IOException {
+		List<ApiJarReader> jars = new ArrayList<>();
+		try {
+			List<ClassFileSource> sources = new ArrayList<>(inputs.size());
+			for (Path in : inputs) {
+				if (Files.isDirectory(in)) {
+					sources.add(entryname -> {
+						Path file = in.resolve(entryname);
+						return Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+					});
+				} else {
+					ApiJarReader jar = ApiJarReader.open(in);
+					jars.add(jar);
+					sources.add(entryname -> jar.hasEntry(entryname) ? jar.getBytes(entryname) : null);
+				}
+			}
+			return extractFrom(index, sources, bodypolicy, parameternames, threads);
+		} finally {
+			IOException exc = null;
+			for (ApiJarReader jar : jars) {
+				try {
+					jar.close();
+				} catch (IOException e) {
+					if (exc == null) {
+						exc = e;
+					} else {
+						exc.addSuppressed(e);
+					}
+				}
+			}
+			if (exc != null) {
+				throw exc;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path indexpath = null;
+		Path outputpath = null;
+		List<Path> inputs = new ArrayList<>();
+		int threads = Runtime.getRuntime().availableProcessors();
+		ApiStubGenerator.BodyPolicy bodypolicy = ApiStubGenerator.BodyPolicy.THROW;
+		boolean parameternames = true;
+		boolean valid = true;
+		for (int i = 0; i < args.length; i++) {
+			String a = args[i];
+			if ("-threads".equals(a) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-stub-body".equals(a) && i + 1 < args.length) {
+				try {
+					bodypolicy = ApiStubGenerator.BodyPolicy.valueOf(args[++i].toUpperCase(Locale.ENGLISH));
+				} catch (IllegalArgumentException e) {
+					valid = false;
+					break;
+				}
+			} else if ("-no-parameter-names".equals(a)) {
+				parameternames = false;
+			} else if (indexpath == null) {
+				indexpath = Paths.get(a);
+			} else if (outputpath == null) {
+				outputpath = Paths.get(a);
+			} else {
+				inputs.add(Paths.get(a));
+			}
+		}
+		if (!valid || inputs.isEmpty()) {
+			System.err.println("Usage: " + ApiStubExtractor.class.getName()
+					+ " <index> <output.jar|directory> <input directory|jar>... [-threads <count>]"
+					+ " [-stub-body throw|null] [-no-parameter-names]");
+			System.exit(2);
+			return;
+		}
+		ApiInclusionIndex index;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexpath)))) {
+			index = ApiInclusionIndex.readFrom(in);
+		}
+		Map<String, byte[]> stubs = extract(index, inputs, bodypolicy, parameternames, threads);
+		if (outputpath.getFileName().toString().endsWith(".jar")) {
+			writeJar(outputpath, stubs, threads);
+		} else {
+			for (Entry<String, byte[]> entry : stubs.entrySet()) {
+				Path file = outputpath.resolve(entry.getKey());
+				Files.createDirectories(file.getParent());
+				Files.write(file, entry.getValue());
+			}
+		}
+		System.out.println(stubs.size() + " stubs written to " + outputpath);
+	}
+
+	private static Map<String, byte[]> extractFrom(ApiInclusionIndex index, List<ClassFileSource> sources,
+			ApiStubGenerator.BodyPolicy bodypolicy, boolean parameternames, int threads) throws IOException {
+		Map<String, byte[]> result = new TreeMap<>();
+		try {
+			if (threads <= 1) {
+				for (ApiInclusionIndex.TypeEntry type : index.getTypes()) {
+					result.put(type.getInternalName() + ".class", generateStub(type, sources, bodypolicy,
+							parameternames));
+				}
+			} else {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				try {
+					Map<String, ForkJoinTask<byte[]>> tasks = new LinkedHashMap<>();
+					for (ApiInclusionIndex.TypeEntry type : index.getTypes()) {
+						tasks.put(type.getInternalName() + ".class",
+								pool.submit(() -> generateStub(type, sources, bodypolicy, parameternames)));
+					}
+					for (Entry<String, ForkJoinTask<byte[]>> entry : tasks.entrySet()) {
+						result.put(entry.getKey(), entry.getValue().join());
+					}
+				} finally {
+					pool.shutdownNow();
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return result;
+	}
+
+	private static void writeJar(Path outputpath, Map<String, byte[]> stubs, int threads) throws IOException {
+		List<ApiJarWriter.CompressedEntry> entries = new ArrayList<>(stubs.size() + 1);
+		entries.add(ApiJarWriter.compress(ApiJarWriter.MANIFEST_ENTRY_NAME, ApiJarWriter.getManifestBytes()));
+		if (threads <= 1) {
+			for (Entry<String, byte[]> entry : stubs.entrySet()) {
+				entries.add(ApiJarWriter.compress(entry.getKey(), entry.getValue()));
+			}
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				List<ForkJoinTask<ApiJarWriter.CompressedEntry>> tasks = new ArrayList<>(stubs.size());
+				for (Entry<String, byte[]> entry : stubs.entrySet()) {
+					tasks.add(pool.submit(() -> ApiJarWriter.compress(entry.getKey(), entry.getValue())));
+				}
+				for (ForkJoinTask<ApiJarWriter.CompressedEntry> t : tasks) {
+					entries.add(t.join());
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+		Path parent = outputpath.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(outputpath), 64 * 1024)) {
+			ApiJarWriter.write(os, entries);
+		}
+	}
+
+	private static byte[] generateStub(ApiInclusionIndex.TypeEntry type, List<ClassFileSource> sources,
+			ApiStubGenerator.BodyPolicy bodypolicy, boolean parameternames) {
+		String entryname = type.getInternalName() + ".class";
+		try {
+			byte[] classbytes = null;
+			for (ClassFileSource src : sources) {
+				classbytes = src.getBytes(entryname);
+				if (classbytes != null) {
+					break;
+				}
+			}
+			if (classbytes == null) {
+				throw new IOException("Class file not found: " + entryname);
+			}
+			return ApiStubGenerator.generate(readTypeModel(type, classbytes), bodypolicy, parameternames);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Creates the model of an indexed type based on its class file.
+	 * 
+	 * @param type
+	 *            The index entry of the type.
+	 * @param classbytes
+	 *            The contents of the compiled class file.
+	 * @return The type model.
+	 * @throws IOException
+	 *             If the class file doesn't declare an indexed member.
+	 */
+	static ApiTypeModel readTypeModel(ApiInclusionIndex.TypeEntry type, byte[] classbytes) throws IOException {
+		TypeModelReader reader = new TypeModelReader(type);
+		new ClassReader(classbytes).accept(reader, CLASS_READER_FLAGS);
+		return reader.createModel();
+	}
+
+	@FunctionalInterface
+	private interface ClassFileSource {
+		/**
+		 * Gets the contents of the class file with the given entry name.
+		 * 
+		 * @param entryname
+		 *            The entry name.
+		 * @return The contents or <code>null</code> if not found.
+		 * @throws IOException
+		 *             In case of I/O error.
+		 */
+		public byte[] getBytes(String entryname) throws IOException;
+	}
+
+	private static String memberKey(String name, String descriptor) {
+		//the names cannot contain the ; and ( characters, so the concatenation is unambiguous
+		return name + descriptor;
+	}
+
+	private static final class TypeModelReader extends ClassVisitor {
+		protected final ApiInclusionIndex.TypeEntry type;
+		protected final Map<String, ApiInclusionIndex.MemberEntry> fieldEntries = new HashMap<>();
+		protected final Map<String, ApiInclusionIndex.MemberEntry> methodEntries = new HashMap<>();
+		protected final Map<String, ApiFieldModel> fields = new HashMap<>();
+		protected final Map<String, ApiMethodModel> methods = new HashMap<>();
+
+		protected String signature;
+		protected String superName;
+		protected String[] interfaces;
+		protected final List<ApiAnnotationModel> annotations = new ArrayList<>();
+
+		public TypeModelReader(ApiInclusionIndex.TypeEntry type) {
+			super(Opcodes.ASM9);
+			this.type = type;
+			for (ApiInclusionIndex.MemberEntry f : type.getFields()) {
+				fieldEntries.put(memberKey(f.getName(), f.getDescriptor()), f);
+			}
+			for (ApiInclusionIndex.MemberEntry m : type.getMethods()) {
+				methodEntries.put(memberKey(m.getName(), m.getDescriptor()), m);
+			}
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName,
+				String[] interfaces) {
+			this.signature = signature;
+			this.superName = superName;
+			this.interfaces = interfaces == null || interfaces.length == 0 ? null : interfaces;
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+			return new AnnotationModelCollector(descriptor, visible, annotations::add);
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String descriptor, String signature,
+				Object value) {
+			String key = memberKey(name, descriptor);
+			ApiInclusionIndex.MemberEntry entry = fieldEntries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			List<ApiAnnotationModel> fieldannotations = new ArrayList<>();
+			return new FieldVisitor(api) {
+				@Override
+				public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+					return new AnnotationModelCollector(descriptor, visible, fieldannotations::add);
+				}
+
+				@Override
+				public void visitEnd() {
+					fields.put(key, new ApiFieldModel(entry.getAccess(), name, descriptor, signature,
+							entry.isConstantValue() ? value : null, fieldannotations));
+				}
+			};
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+				String[] exceptions) {
+			String key = memberKey(name, descriptor);
+			ApiInclusionIndex.MemberEntry entry = methodEntries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			return new MethodModelReader(entry, key, signature, exceptions);
+		}
+
+		public ApiTypeModel createModel() throws IOException {
+			int membercount = type.getMemberCount();
+			List<ApiMemberModel> members = new ArrayList<>(membercount);
+			Iterator<ApiInnerClassModel> innerclasses = type.getInnerClasses().iterator();
+			Iterator<ApiInclusionIndex.MemberEntry> fieldentries = type.getFields().iterator();
+			Iterator<ApiInclusionIndex.MemberEntry> methodentries = type.getMethods().iterator();
+			for (int i = 0; i < membercount; i++) {
+				byte kind = type.getMemberKind(i);
+				switch (kind) {
+					case ApiMemberModel.TAG_INNER_CLASS: {
+						members.add(innerclasses.next());
+						break;
+					}
+					case ApiMemberModel.TAG_FIELD: {
+						ApiInclusionIndex.MemberEntry f = fieldentries.next();
+						ApiFieldModel model = fields.get(memberKey(f.getName(), f.getDescriptor()));
+						if (model == null) {
+							throw new IOException("Field not found in class file: " + type.getInternalName() + "."
+									+ f.getName() + " " + f.getDescriptor());
+						}
+						members.add(model);
+						break;
+					}
+					case ApiMemberModel.TAG_METHOD: {
+						ApiInclusionIndex.MemberEntry m = methodentries.next();
+						ApiMethodModel model = methods.get(memberKey(m.getName(), m.getDescriptor()));
+						if (model == null) {
+							throw new IOException("Method not found in class file: " + type.getInternalName() + "."
+									+ m.getName() + m.getDescriptor());
+						}
+						members.add(model);
+						break;
+					}
+					default: {
+						throw new IllegalArgumentException("Unknown member kind: " + kind);
+					}
+				}
+			}
+			return new ApiTypeModel(type.getVersion(), type.getAccess(), type.getInternalName(), signature,
+					superName, interfaces, annotations, members);
+		}
+
+		private final class MethodModelReader extends MethodVisitor {
+			protected final ApiInclusionIndex.MemberEntry entry;
+			protected final String key;
+			protected final String signature;
+			protected final String[] exceptions;
+			protected final List<String> parameterNames = new ArrayList<>();
+			protected final List<Integer> parameterAccess = new ArrayList<>();
+			protected final List<ApiAnnotationModel> annotations = new ArrayList<>();
+			protected Object defaultValue;
+
+			public MethodModelReader(ApiInclusionIndex.MemberEntry entry, String key, String signature,
+					String[] exceptions) {
+				super(Opcodes.ASM9);
+				this.entry = entry;
+				this.key = key;
+				this.signature = signature;
+				this.exceptions = exceptions == null || exceptions.length == 0 ? null : exceptions;
+			}
+
+			@Override
+			public void visitParameter(String name, int access) {
+				parameterNames.add(name);
+				parameterAccess.add(access);
+			}
+
+			@Override
+			public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+				return new AnnotationModelCollector(descriptor, visible, annotations::add);
+			}
+
+			@Override
+			public AnnotationVisitor visitAnnotationDefault() {
+				return new ValueCollector() {
+					@Override
+					protected void put(String name, Object value) {
+						defaultValue = value;
+					}
+				};
+			}
+
+			@Override
+			public void visitEnd() {
+				int[] paramaccess = new int[parameterAccess.size()];
+				for (int i = 0; i < paramaccess.length; i++) {
+					paramaccess[i] = parameterAccess.get(i);
+				}
+				methods.put(key,
+						new ApiMethodModel(entry.getAccess(), entry.getName(), entry.getDescriptor(), signature,
+								exceptions, parameterNames.toArray(new String[parameterNames.size()]), paramaccess,
+								annotations, defaultValue));
+			}
+		}
+	}
+
+	/**
+	 * Collects the annotation element values in the format specified by {@link ApiAnnotationModel#getValues()}.
+	 */
+	private abstract static class ValueCollector extends AnnotationVisitor {
+		public ValueCollector() {
+			super(Opcodes.ASM9);
+		}
+
+		protected abstract void put(String name, Object value);
+
+		@Override
+		public void visit(String name, Object value) {
+			if (value.getClass().isArray()) {
+				//primitive arrays are reported as a single value
+				int len = Array.getLength(value);
+				List<Object> elements = new ArrayList<>(len);
+				for (int i = 0; i < len; i++) {
+					elements.add(Array.get(value, i));
+				}
+				put(name, Collections.unmodifiableList(elements));
+			} else {
+				put(name, value);
+			}
+		}
+
+		@Override
+		public void visitEnum(String name, String descriptor, String value) {
+			put(name, new ApiAnnotationModel.EnumValue(descriptor, value));
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+			return new AnnotationModelCollector(descriptor, false, a -> put(name, a));
+		}
+
+		@Override
+		public AnnotationVisitor visitArray(String name) {
+			List<Object> elements = new ArrayList<>();
+			return new ValueCollector() {
+				@Override
+				protected void put(String elemname, Object value) {
+					elements.add(value);
+				}
+
+				@Override
+				public void visitEnd() {
+					ValueCollector.this.put(name, Collections.unmodifiableList(elements));
+				}
+			};
+		}
+	}
+
+	private static final class AnnotationModelCollector extends ValueCollector {
+		protected final String descriptor;
+		protected final boolean visible;
+		protected final Consumer<? super ApiAnnotationModel> target;
+		protected final Map<String, Object> values = new LinkedHashMap<>();
+
+		public AnnotationModelCollector(String descriptor, boolean visible,
+				Consumer<? super ApiAnnotationModel> target) {
+			this.descriptor = descriptor;
+			this.visible = visible;
+			this.target = target;
+		}
+
+		@Override
+		protected void put(String name, Object value) {
+			values.put(name, value);
+		}
+
+		@Override
+		public void visitEnd() {
+			target.accept(new ApiAnnotationModel(descriptor, visible, values));
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+import saker.build.thirdparty.org.objectweb.asm.AnnotationVisitor;
+import saker.build.thirdparty.org.objectweb.asm.ClassVisitor;
+import saker.build.thirdparty.org.objectweb.asm.ClassWriter;
+import saker.build.thirdparty.org.objectweb.asm.FieldVisitor;
+import saker.build.thirdparty.org.objectweb.asm.MethodVisitor;
+import saker.build.thirdparty.org.objectweb.asm.Opcodes;
+import saker.build.thirdparty.org.objectweb.asm.Type;
+
+/**
+ * Generates the API stub class files from {@link ApiTypeModel} instances.
+ * <p>
+ * The generator only uses the model, it can be used on any thread.
+ */
+final class ApiStubGenerator {
+	private static final String UNSUPPORTED_OPERATION_EXCEPTION_INTERNAL_NAME = Type
+			.getInternalName(UnsupportedOperationException.class);
+
+	/**
+	 * The body of the non-abstract methods of the stubs.
+	 */
+	public enum BodyPolicy {
+		/**
+		 * The methods throw an {@link UnsupportedOperationException}.
+		 */
+		THROW,
+		/**
+		 * The methods throw <code>null</code>, which results in a {@link NullPointerException} if they are called.
+		 * <p>
+		 * The body is 2 bytes long and doesn't add entries to the constant pool.
+		 */
+		NULL;
+	}
+
+	private ApiStubGenerator() {
+		throw new UnsupportedOperationException();
+	}
+
+	public static byte[] generate(ApiTypeModel type) {
+		return generate(type, BodyPolicy.THROW, true);
+	}
+
+	/**
+	 * Generates the stub class file for the given type.
+	 * 
+	 * @param type
+	 *            The type model.
+	 * @param bodypolicy
+	 *            The body of the non-abstract methods.
+	 * @param parameternames
+	 *            <code>true</code> to write the <code>MethodParameters</code> attribute of the methods.
+	 * @return The class file bytes.
+	 */
+	public static byte[] generate(ApiTypeModel type, BodyPolicy bodypolicy, boolean parameternames) {
+		//the max stack and locals are set explicitly for the method bodies, no need to compute them
+		ClassWriter cw = new ClassWriter(0);
+		accept(type, cw, bodypolicy, parameternames);
+		return cw.toByteArray();
+	}
+
+	public static void accept(ApiTypeModel type, ClassVisitor cv, BodyPolicy bodypolicy, boolean parameternames) {
+		cv.visit(type.getVersion(), type.getAccess(), type.getInternalName(), type.getSignature(),
+				type.getSuperName(), type.getInterfaces());
+		for (ApiAnnotationModel a : type.getAnnotations()) {
+			visitAnnotation(cv.visitAnnotation(a.getDescriptor(), a.isVisible()), a);
+		}
+		for (ApiMemberModel m : type.getMembers()) {
+			if (m instanceof ApiMethodModel) {
+				visitMethod(cv, (ApiMethodModel) m, bodypolicy, parameternames);
+			} else if (m instanceof ApiFieldModel) {
+				visitField(cv, (ApiFieldModel) m);
+			} else if (m instanceof ApiInnerClassModel) {
+				ApiInnerClassModel ic = (ApiInnerClassModel) m;
+				cv.visitInnerClass(ic.getName(), ic.getOuterName(), ic.getInnerName(), ic.getAccess());
+			} else {
+				throw new IllegalArgumentException("Unknown member: " + m);
+			}
+		}
+		cv.visitEnd();
+	}
+
+	private static void visitField(ClassVisitor cv, ApiFieldModel field) {
+		FieldVisitor fw = cv.visitField(field.getAccess(), field.getName(), field.getDescriptor(),
+				field.getSignature(), field.getConstantValue());
+		for (ApiAnnotationModel a : field.getAnnotations()) {
+			visitAnnotation(fw.visitAnnotation(a.getDescriptor(), a.isVisible()), a);
+		}
+		fw.visitEnd();
+	}
+
+	private static void visitMethod(ClassVisitor cv, ApiMethodModel method, BodyPolicy bodypolicy,
+			boolean parameternames) {
+		int access = method.getAccess();
+		MethodVisitor mw = cv.visitMethod(access, method.getName(), method.getDescriptor(), method.getSignature(),
+				method.getExceptions());
+		if (parameternames) {
+			int paramcount = method.getParameterCount();
+			for (int i = 0; i < paramcount; i++) {
+				mw.visitParameter(method.getParameterName(i), method.getParameterAccess(i));
+			}
+		}
+		for (ApiAnnotationModel a : method.getAnnotations()) {
+			visitAnnotation(mw.visitAnnotation(a.getDescriptor(), a.isVisible()), a);
+		}
+		Object defval = method.getDefaultValue();
+		if (defval != null) {
+			AnnotationVisitor defvisitor = mw.visitAnnotationDefault();
+			if (defvisitor != null) {
+				visitAnnotationValue(defvisitor, null, defval);
+				defvisitor.visitEnd();
+			}
+		}
+		if ((access & Opcodes.ACC_ABSTRACT) == 0) {
+			//the locals only contain the parameters, and this for instance methods
+			int maxlocals = Type.getArgumentsAndReturnSizes(method.getDescriptor()) >> 2;
+			if ((access & Opcodes.ACC_STATIC) != 0) {
+				--maxlocals;
+			}
+			mw.visitCode();
+			switch (bodypolicy) {
+				case THROW: {
+					mw.visitTypeInsn(Opcodes.NEW, UNSUPPORTED_OPERATION_EXCEPTION_INTERNAL_NAME);
+					mw.visitInsn(Opcodes.DUP);
+					mw.visitLdcInsn("API only.");
+					mw.visitMethodInsn(Opcodes.INVOKESPECIAL, UNSUPPORTED_OPERATION_EXCEPTION_INTERNAL_NAME, "<init>",
+							"(Ljava/lang/String;)V", false);
+					mw.visitInsn(Opcodes.ATHROW);
+					mw.visitMaxs(3, maxlocals);
+					break;
+				}
+				case NULL: {
+					mw.visitInsn(Opcodes.ACONST_NULL);
+					mw.visitInsn(Opcodes.ATHROW);
+					mw.visitMaxs(1, maxlocals);
+					break;
+				}
+				default: {
+					throw new IllegalArgumentException(bodypolicy.toString());
+				}
+			}
+		}
+		mw.visitEnd();
+	}
+
+	private static void visitAnnotation(AnnotationVisitor av, ApiAnnotationModel annot) {
+		if (av == null) {
+			return;
+		}
+		for (Entry<String, Object> entry : annot.getValues().entrySet()) {
+			visitAnnotationValue(av, entry.getKey(), entry.getValue());
+		}
+		av.visitEnd();
+	}
+
+	private static void visitAnnotationValue(AnnotationVisitor av, String name, Object value) {
+		if (value instanceof ApiAnnotationModel.EnumValue) {
+			ApiAnnotationModel.EnumValue ev = (ApiAnnotationModel.EnumValue) value;
+			av.visitEnum(name, ev.getDescriptor(), ev.getValue());
+		} else if (value instanceof ApiAnnotationModel) {
+			ApiAnnotationModel am = (ApiAnnotationModel) value;
+			visitAnnotation(av.visitAnnotation(name, am.getDescriptor()), am);
+		} else if (value instanceof List) {
+			AnnotationVisitor elemvisitor = av.visitArray(name);
+			if (elemvisitor != null) {
+				for (Object o : (List<?>) value) {
+					visitAnnotationValue(elemvisitor, null, o);
+				}
+				elemvisitor.visitEnd();
+			}
+		} else {
+			av.visit(name, value);
+		}
+	}
+}
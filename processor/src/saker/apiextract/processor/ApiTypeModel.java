@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable model of a single type in the extracted API.
+ * <p>
+ * The members are stored in the order they should be visited during the stub class file generation. The inner class
+ * attributes are also part of the members.
+ */
+final class ApiTypeModel {
+	private final int version;
+	private final int access;
+	private final String internalName;
+	private final String signature;
+	private final String superName;
+	private final String[] interfaces;
+	private final List<ApiAnnotationModel> annotations;
+	private final List<ApiMemberModel> members;
+
+	public ApiTypeModel(int version, int access, String internalName, String signature, String superName,
+			String[] interfaces, List<ApiAnnotationModel> annotations, List<ApiMemberModel> members) {
+		this.version = version;
+		this.access = access;
+		this.internalName = internalName;
+		this.signature = signature;
+		this.superName = superName;
+		this.interfaces = interfaces;
+		this.annotations = immutableList(annotations);
+		this.members = immutableList(members);
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public int getAccess() {
+		return access;
+	}
+
+	public String getInternalName() {
+		return internalName;
+	}
+
+	public String getBinaryName() {
+		return internalName.replace('/', '.');
+	}
+
+	public String getSignature() {
+		return signature;
+	}
+
+	public String getSuperName() {
+		return superName;
+	}
+
+	/**
+	 * Gets the internal names of the implemented interfaces.
+	 * <p>
+	 * The returned array must not be modified.
+	 * 
+	 * @return The interface names or <code>null</code> if there are none.
+	 */
+	public String[] getInterfaces() {
+		return interfaces;
+	}
+
+	public List<ApiAnnotationModel> getAnnotations() {
+		return annotations;
+	}
+
+	public List<ApiMemberModel> getMembers() {
+		return members;
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(version);
+		out.writeInt(access);
+		out.writeUTF(internalName);
+		writeNullableString(out, signature);
+		writeNullableString(out, superName);
+		writeNullableStringArray(out, interfaces);
+		ApiAnnotationModel.writeAnnotations(out, annotations);
+		out.writeInt(members.size());
+		for (ApiMemberModel m : members) {
+			m.writeTo(out);
+		}
+	}
+
+	public static ApiTypeModel readFrom(DataInput in) throws IOException {
+		int version = in.readInt();
+		int access = in.readInt();
+		String internalname = in.readUTF();
+		String signature = readNullableString(in);
+		String supername = readNullableString(in);
+		String[] interfaces = readNullableStringArray(in);
+		List<ApiAnnotationModel> annotations = ApiAnnotationModel.readAnnotations(in);
+		int membercount = in.readInt();
+		List<ApiMemberModel> members = new ArrayList<>(membercount);
+		for (int i = 0; i < membercount; i++) {
+			members.add(ApiMemberModel.readFrom(in));
+		}
+		return new ApiTypeModel(version, access, internalname, signature, supername, interfaces, annotations,
+				members);
+	}
+
+	@Override
+	public int hashCode() {
+		return internalName.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		ApiTypeModel other = (ApiTypeModel) obj;
+		return version == other.version && access == other.access && internalName.equals(other.internalName)
+				&& Objects.equals(signature, other.signature) && Objects.equals(superName, other.superName)
+				&& Arrays.equals(interfaces, other.interfaces) && annotations.equals(other.annotations)
+				&& members.equals(other.members);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + internalName + "]";
+	}
+
+	static <T> List<T> immutableList(List<? extends T> list) {
+		if (list == null || list.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(new ArrayList<>(list));
+	}
+
+	static void writeNullableString(DataOutput out, String s) throws IOException {
+		if (s == null) {
+			out.writeBoolean(false);
+		} else {
+			out.writeBoolean(true);
+			out.writeUTF(s);
+		}
+	}
+
+	static String readNullableString(DataInput in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		return in.readUTF();
+	}
+
+	static void writeNullableStringArray(DataOutput out, String[] array) throws IOException {
+		if (array == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(array.length);
+		for (String s : array) {
+			out.writeUTF(s);
+		}
+	}
+
+	static String[] readNullableStringArray(DataInput in) throws IOException {
+		int len = in.readInt();
+		if (len < 0) {
+			return null;
+		}
+		String[] result = new String[len];
+		for (int i = 0; i < len; i++) {
+			result[i] = in.readUTF();
+		}
+		return result;
+	}
+}
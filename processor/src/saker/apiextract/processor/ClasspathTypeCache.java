@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.JavaFileObject;
+
+/**
+ * Cache of the metadata of the types that the compiler loads from class files.
+ * <p>
+ * The metadata of a type only depends on its class file, so it is shared by the processor instances in the JVM. If
+ * the compiler runs in a long-lived process, the metadata of the library types is only derived once instead of in
+ * each compilation.
+ * <p>
+ * The metadata is stored for each classpath entry, along with the content hash of the entry. The classpath entries
+ * are the JAR files, the class files in directories, and the modules of the runtime image. The hash of a file is only
+ * computed again if its size or modification time changes. The class file URIs of the runtime image don't identify
+ * the image, so its modules are identified by the path of the running JDK and the module name, and their hash is the
+ * hash of their <code>module-info</code> class file. This way a different image specified with <code>--system</code>
+ * is not mistaken for the running one. If the hash of an entry changes, all of its types are evicted. The number of
+ * cached types is bounded, and the least recently used entries are evicted first.
+ * <p>
+ * The class file of a type is determined by <code>Elements.getFileObjectOf(Element)</code>, which is available since
+ * Java 18. With earlier compilers, the metadata is computed for each compilation without caching. The types that are
+ * compiled from source are never cached.
+ * <p>
+ * The instances are not thread safe, they should only be used on the processing thread. The shared cache is
+ * synchronized.
+ */
+final class ClasspathTypeCache {
+	/**
+	 * The metadata of a type.
+	 */
+	public static final class TypeMetadata {
+		protected final ApiInnerClassModel innerClassAttribute;
+		protected final RetentionPolicy retentionPolicy;
+
+		public TypeMetadata(ApiInnerClassModel innerClassAttribute, RetentionPolicy retentionPolicy) {
+			this.innerClassAttribute = innerClassAttribute;
+			this.retentionPolicy = retentionPolicy;
+		}
+
+		/**
+		 * Gets the inner class attribute that describes the type.
+		 * 
+		 * @return The attribute or <code>null</code> if the type is not a member type.
+		 */
+		public ApiInnerClassModel getInnerClassAttribute() {
+			return innerClassAttribute;
+		}
+
+		/**
+		 * Gets the retention policy of an annotation type.
+		 * 
+		 * @return The retention policy or <code>null</code> if the type is not an annotation type.
+		 */
+		public RetentionPolicy getRetentionPolicy() {
+			return retentionPolicy;
+		}
+	}
+
+	private static final int MAX_CACHED_TYPE_COUNT = 64 * 1024;
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private static final Method GET_FILE_OBJECT_OF_METHOD;
+	private static final Method GET_MODULE_OF_METHOD;
+	static {
+		Method fileobjectof;
+		Method moduleof;
+		try {
+			fileobjectof = Elements.class.getMethod("getFileObjectOf", Element.class);
+			moduleof = Elements.class.getMethod("getModuleOf", Element.class);
+		} catch (NoSuchMethodException e) {
+			fileobjectof = null;
+			moduleof = null;
+		}
+		GET_FILE_OBJECT_OF_METHOD = fileobjectof;
+		GET_MODULE_OF_METHOD = moduleof;
+	}
+
+	/**
+	 * The path of the runtime image of the running JDK.
+	 */
+	private static final String RUNTIME_IMAGE_PATH = getRuntimeImagePath();
+
+	private static final Object sharedLock = new Object();
+	/**
+	 * The cached classpath entries by their identifiers, in access order for the eviction.
+	 */
+	private static final Map<String, EntryTypes> sharedEntries = new LinkedHashMap<>(16, 0.75f, true);
+	private static final Map<Path, FileHash> sharedFileHashes = new HashMap<>();
+	private static int sharedTypeCount;
+
+	private final Elements elements;
+	private final Function<? super TypeElement, ? extends TypeMetadata> metadataFactory;
+	private boolean fileObjectsAvailable = GET_FILE_OBJECT_OF_METHOD != null;
+
+	private final Map<TypeElement, TypeMetadata> types = new HashMap<>();
+	/**
+	 * The classpath entries that are resolved in this compilation. Maps to <code>null</code> if the entry cannot be
+	 * cached.
+	 */
+	private final Map<String, EntryTypes> entries = new HashMap<>();
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param elements
+	 *            The element utilities of the compilation.
+	 * @param metadataFactory
+	 *            The function that derives the metadata of a type if it is not cached.
+	 */
+	public ClasspathTypeCache(Elements elements,
+			Function<? super TypeElement, ? extends TypeMetadata> metadataFactory) {
+		this.elements = elements;
+		this.metadataFactory = metadataFactory;
+	}
+
+	public TypeMetadata get(TypeElement type) {
+		TypeMetadata result = types.get(type);
+		if (result != null) {
+			return result;
+		}
+		JavaFileObject classfile = getClassFile(type);
+		if (classfile == null) {
+			result = metadataFactory.apply(type);
+		} else {
+			String uri = classfile.toUri().toString();
+			String entryid;
+			String name;
+			if (uri.startsWith("jar:")) {
+				int sepidx = uri.indexOf("!/");
+				entryid = sepidx < 0 ? null : uri.substring(4, sepidx);
+				name = sepidx < 0 ? null : uri.substring(sepidx + 2);
+			} else if (uri.startsWith("jrt:/")) {
+				int modidx = uri.indexOf('/', 5);
+				entryid = modidx < 0 ? null : "jrt:" + RUNTIME_IMAGE_PATH + "!/" + uri.substring(5, modidx);
+				name = modidx < 0 ? null : uri.substring(modidx + 1);
+			} else if (uri.startsWith("file:")) {
+				entryid = uri;
+				name = "";
+			} else {
+				entryid = null;
+				name = null;
+			}
+			EntryTypes entry = entryid == null ? null : getEntry(entryid, type);
+			if (entry == null) {
+				result = metadataFactory.apply(type);
+			} else {
+				synchronized (sharedLock) {
+					result = entry.types.get(name);
+				}
+				if (result == null) {
+					result = metadataFactory.apply(type);
+					put(entry, name, result);
+				}
+			}
+		}
+		types.put(type, result);
+		return result;
+	}
+
+	private JavaFileObject getClassFile(Element element) {
+		if (!fileObjectsAvailable) {
+			return null;
+		}
+		Object fo;
+		try {
+			fo = GET_FILE_OBJECT_OF_METHOD.invoke(elements, element);
+		} catch (InvocationTargetException | IllegalAccessException e) {
+			//not supported by the compiler
+			fileObjectsAvailable = false;
+			return null;
+		}
+		if (!(fo instanceof JavaFileObject)) {
+			return null;
+		}
+		JavaFileObject jfo = (JavaFileObject) fo;
+		if (jfo.getKind() != JavaFileObject.Kind.CLASS) {
+			return null;
+		}
+		return jfo;
+	}
+
+	private EntryTypes getEntry(String entryid, TypeElement type) {
+		if (entries.containsKey(entryid)) {
+			return entries.get(entryid);
+		}
+		EntryTypes result;
+		try {
+			Path file;
+			byte[] hash;
+			if (entryid.startsWith("jrt:")) {
+				file = null;
+				hash = getModuleInfoHash(type);
+			} else {
+				file = Paths.get(URI.create(entryid));
+				hash = getFileHash(file);
+			}
+			result = getSharedEntry(entryid, file, hash);
+		} catch (IOException | IllegalArgumentException e) {
+			//the file cannot be read, or the URI is not of the default file system
+			result = null;
+		}
+		entries.put(entryid, result);
+		return result;
+	}
+
+	private static EntryTypes getSharedEntry(String entryid, Path file, byte[] hash) {
+		synchronized (sharedLock) {
+			EntryTypes result = sharedEntries.get(entryid);
+			if (result != null && Arrays.equals(result.hash, hash)) {
+				return result;
+			}
+			if (result != null) {
+				//the contents of the entry changed
+				result.evicted = true;
+				sharedTypeCount -= result.types.size();
+			}
+			result = new EntryTypes(entryid, file, hash);
+			sharedEntries.put(entryid, result);
+			return result;
+		}
+	}
+
+	private static void put(EntryTypes entry, String name, TypeMetadata metadata) {
+		synchronized (sharedLock) {
+			if (entry.evicted) {
+				return;
+			}
+			if (entry.types.putIfAbsent(name, metadata) != null) {
+				return;
+			}
+			//access the entry so it is not evicted first
+			sharedEntries.get(entry.id);
+			if (++sharedTypeCount <= MAX_CACHED_TYPE_COUNT) {
+				return;
+			}
+			for (Iterator<EntryTypes> it = sharedEntries.values().iterator(); it.hasNext()
+					&& sharedTypeCount > MAX_CACHED_TYPE_COUNT;) {
+				EntryTypes evict = it.next();
+				it.remove();
+				evict.evicted = true;
+				sharedTypeCount -= evict.types.size();
+				if (evict.file != null) {
+					sharedFileHashes.remove(evict.file);
+				}
+			}
+		}
+	}
+
+	private byte[] getModuleInfoHash(TypeElement type) throws IOException {
+		JavaFileObject moduleinfo = null;
+		try {
+			Object module = GET_MODULE_OF_METHOD.invoke(elements, type);
+			if (module instanceof Element) {
+				moduleinfo = getClassFile((Element) module);
+			}
+		} catch (InvocationTargetException | IllegalAccessException e) {
+			//not supported by the compiler
+		}
+		if (moduleinfo == null) {
+			throw new IOException("Module info class file not found for: " + type);
+		}
+		try (InputStream in = moduleinfo.openInputStream()) {
+			return hash(in);
+		}
+	}
+
+	private static String getRuntimeImagePath() {
+		String javahome = System.getProperty("java.home", "");
+		try {
+			return Paths.get(javahome).toRealPath().toString();
+		} catch (IOException | RuntimeException e) {
+			return javahome;
+		}
+	}
+
+	private static byte[] getFileHash(Path file) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		long size = attrs.size();
+		long modified = attrs.lastModifiedTime().toMillis();
+		synchronized (sharedLock) {
+			FileHash fh = sharedFileHashes.get(file);
+			if (fh != null && fh.size == size && fh.lastModified == modified) {
+				return fh.hash;
+			}
+		}
+		//hash outside of the lock, as it can take a while for large JARs
+		byte[] hash;
+		try (InputStream in = Files.newInputStream(file)) {
+			hash = hash(in);
+		}
+		synchronized (sharedLock) {
+			sharedFileHashes.put(file, new FileHash(size, modified, hash));
+		}
+		return hash;
+	}
+
+	private static byte[] hash(InputStream in) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(HASH_ALGORITHM + " is not available.", e);
+		}
+		byte[] buf = new byte[64 * 1024];
+		for (int read; (read = in.read(buf)) > 0;) {
+			digest.update(buf, 0, read);
+		}
+		return digest.digest();
+	}
+
+	private static final class EntryTypes {
+		protected final String id;
+		protected final Path file;
+		protected final byte[] hash;
+		protected final Map<String, TypeMetadata> types = new HashMap<>();
+		protected boolean evicted;
+
+		public EntryTypes(String id, Path file, byte[] hash) {
+			this.id = id;
+			this.file = file;
+			this.hash = hash;
+		}
+	}
+
+	private static final class FileHash {
+		protected final long size;
+		protected final long lastModified;
+		protected final byte[] hash;
+
+		public FileHash(long size, long lastModified, byte[] hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JDK Flight Recorder events of the processor.
+ * <p>
+ * The events are defined at runtime using <code>jdk.jfr.EventFactory</code>, and accessed through method handles, so
+ * the processor doesn't depend on the <code>jdk.jfr</code> module. If it is not available, the events are disabled.
+ * <p>
+ * Defining the event types starts up the Flight Recorder, so they are only defined by {@link #defineIfRecording()}
+ * when a recording is running. Until then, the events have no cost besides a field read. After they are defined, an
+ * event instance is only created if the event type is enabled.
+ */
+final class FlightRecorderEvents {
+	private static final String CATEGORY = "saker.apiextract";
+
+	public static final EventDefinition ROUND = new EventDefinition("saker.apiextract.Round",
+			"Annotation Processing Round", "A processing round of the API extract processor.", int.class, "round",
+			"Round", int.class, "annotatedElements", "Annotated Elements");
+	public static final EventDefinition CLOSURE = new EventDefinition("saker.apiextract.Closure",
+			"Inclusion Closure", "Computation of the elements included in the API.", int.class, "annotatedElements",
+			"Annotated Elements", int.class, "includedElements", "Included Elements");
+	public static final EventDefinition DOC_WARNINGS = new EventDefinition("saker.apiextract.DocWarnings",
+			"Documentation Warnings", "Checking the documentation of the included elements.", int.class, "elements",
+			"Elements");
+	public static final EventDefinition EMIT_TYPE = new EventDefinition("saker.apiextract.EmitType", "Emit API Type",
+			"Generation of the stub class file of a type.", String.class, "binaryName", "Binary Name", int.class,
+			"memberCount", "Member Count", int.class, "byteCount", "Byte Count");
+
+	private static final EventDefinition[] DEFINITIONS = { ROUND, CLOSURE, DOC_WARNINGS, EMIT_TYPE };
+
+	/**
+	 * Set when the events are defined, or the Flight Recorder is not available.
+	 */
+	private static volatile boolean done;
+
+	private FlightRecorderEvents() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Defines the event types if a Flight Recorder recording is running.
+	 * <p>
+	 * This doesn't start up the Flight Recorder if it hasn't been initialized. The event types are defined at most
+	 * once, and a recording that is started later sees the events after the next call to this method.
+	 */
+	public static void defineIfRecording() {
+		if (done) {
+			return;
+		}
+		synchronized (FlightRecorderEvents.class) {
+			if (done) {
+				return;
+			}
+			try {
+				if (!isRecording()) {
+					return;
+				}
+				Factory factory = new Factory();
+				for (EventDefinition def : DEFINITIONS) {
+					def.handles = factory.define(def.name, def.label, def.description, def.fields);
+				}
+			} catch (Throwable e) {
+				//JFR is not available, or the runtime doesn't support dynamic events
+			}
+			done = true;
+		}
+	}
+
+	private static boolean isRecording() throws ReflectiveOperationException {
+		ClassLoader cl = ClassLoader.getSystemClassLoader();
+		Class<?> flightrecorderclass = Class.forName("jdk.jfr.FlightRecorder", false, cl);
+		if (!(boolean) flightrecorderclass.getMethod("isInitialized").invoke(null)) {
+			return false;
+		}
+		Class<?> recordingclass = Class.forName("jdk.jfr.Recording", false, cl);
+		Method getstate = recordingclass.getMethod("getState");
+		Object flightrecorder = flightrecorderclass.getMethod("getFlightRecorder").invoke(null);
+		for (Object recording : (List<?>) flightrecorderclass.getMethod("getRecordings").invoke(flightrecorder)) {
+			if ("RUNNING".equals(((Enum<?>) getstate.invoke(recording)).name())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A dynamically defined event type.
+	 */
+	public static final class EventDefinition {
+		protected final String name;
+		protected final String label;
+		protected final String description;
+		protected final Object[] fields;
+		protected volatile EventHandles handles;
+
+		/**
+		 * Creates a new event definition. The fields are triplets of type, name, and label.
+		 */
+		EventDefinition(String name, String label, String description, Object... fields) {
+			this.name = name;
+			this.label = label;
+			this.description = description;
+			this.fields = fields;
+		}
+
+		/**
+		 * Starts a new event if the event type is defined and enabled.
+		 * 
+		 * @return The event, or <code>null</code> if the event is disabled.
+		 */
+		public Object begin() {
+			EventHandles h = handles;
+			if (h == null) {
+				return null;
+			}
+			try {
+				if (!(boolean) h.isEnabled.invokeExact()) {
+					return null;
+				}
+				Object event = h.newEvent.invokeExact();
+				h.begin.invokeExact(event);
+				return event;
+			} catch (Throwable e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Sets the field values and commits the event.
+		 * <p>
+		 * Callers should check that the event is non-<code>null</code> before calling this method, to avoid creating
+		 * the arguments for disabled events.
+		 * 
+		 * @param event
+		 *            The event returned by {@link #begin()}. If <code>null</code>, this method does nothing.
+		 * @param values
+		 *            The field values in declaration order.
+		 */
+		public void commit(Object event, Object... values) {
+			if (event == null) {
+				return;
+			}
+			EventHandles h = handles;
+			try {
+				for (int i = 0; i < values.length; i++) {
+					h.set.invokeExact(event, i, values[i]);
+				}
+				h.commit.invokeExact(event);
+			} catch (Throwable e) {
+				//ignore, the event is lost
+			}
+		}
+	}
+
+	private static final class EventHandles {
+		protected final MethodHandle newEvent;
+		protected final MethodHandle isEnabled;
+		protected final MethodHandle begin;
+		protected final MethodHandle set;
+		protected final MethodHandle commit;
+
+		public EventHandles(MethodHandle newEvent, MethodHandle isEnabled, MethodHandle begin, MethodHandle set,
+				MethodHandle commit) {
+			this.newEvent = newEvent;
+			this.isEnabled = isEnabled;
+			this.begin = begin;
+			this.set = set;
+			this.commit = commit;
+		}
+	}
+
+	private static final class Factory {
+		private final Class<?> eventFactoryClass;
+		private final Class<?> eventClass;
+		private final Class<?> eventTypeClass;
+		private final Constructor<?> annotationElementConstructor;
+		private final Constructor<?> valueDescriptorConstructor;
+		private final MethodHandle createFactory;
+		private final Class<?> nameAnnot;
+		private final Class<?> labelAnnot;
+		private final Class<?> descriptionAnnot;
+		private final Class<?> categoryAnnot;
+		private final MethodHandle begin;
+		private final MethodHandle set;
+		private final MethodHandle commit;
+
+		public Factory() throws ReflectiveOperationException {
+			ClassLoader cl = ClassLoader.getSystemClassLoader();
+			eventFactoryClass = Class.forName("jdk.jfr.EventFactory", false, cl);
+			eventClass = Class.forName("jdk.jfr.Event", false, cl);
+			eventTypeClass = Class.forName("jdk.jfr.EventType", false, cl);
+			Class<?> valuedescriptorclass = Class.forName("jdk.jfr.ValueDescriptor", false, cl);
+			Class<?> annotationelementclass = Class.forName("jdk.jfr.AnnotationElement", false, cl);
+			nameAnnot = Class.forName("jdk.jfr.Name", false, cl);
+			labelAnnot = Class.forName("jdk.jfr.Label", false, cl);
+			descriptionAnnot = Class.forName("jdk.jfr.Description", false, cl);
+			categoryAnnot = Class.forName("jdk.jfr.Category", false, cl);
+
+			annotationElementConstructor = annotationelementclass.getConstructor(Class.class, Object.class);
+			valueDescriptorConstructor = valuedescriptorclass.getConstructor(Class.class, String.class, List.class);
+
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			createFactory = lookup.findStatic(eventFactoryClass, "create",
+					MethodType.methodType(eventFactoryClass, List.class, List.class));
+			begin = lookup.findVirtual(eventClass, "begin", MethodType.methodType(void.class))
+					.asType(MethodType.methodType(void.class, Object.class));
+			set = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class))
+					.asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+			commit = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class))
+					.asType(MethodType.methodType(void.class, Object.class));
+		}
+
+		/**
+		 * Defines an event type.
+		 * 
+		 * @param fields
+		 *            The fields as triplets of type, name, and label.
+		 */
+		public EventHandles define(String name, String label, String description, Object[] fields) throws Throwable {
+			List<Object> annotations = new ArrayList<>();
+			annotations.add(annotationElementConstructor.newInstance(nameAnnot, name));
+			annotations.add(annotationElementConstructor.newInstance(labelAnnot, label));
+			annotations.add(annotationElementConstructor.newInstance(descriptionAnnot, description));
+			annotations.add(annotationElementConstructor.newInstance(categoryAnnot, new String[] { CATEGORY }));
+
+			List<Object> fielddescriptors = new ArrayList<>();
+			for (int i = 0; i < fields.length; i += 3) {
+				List<Object> fieldannots = new ArrayList<>();
+				fieldannots.add(annotationElementConstructor.newInstance(labelAnnot, fields[i + 2]));
+				fielddescriptors.add(valueDescriptorConstructor.newInstance(fields[i], fields[i + 1], fieldannots));
+			}
+			Object eventfactory = createFactory.invoke(annotations, fielddescriptors);
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			MethodHandle newevent = lookup
+					.findVirtual(eventFactoryClass, "newEvent", MethodType.methodType(eventClass))
+					.bindTo(eventfactory).asType(MethodType.methodType(Object.class));
+			Object eventtype = lookup
+					.findVirtual(eventFactoryClass, "getEventType", MethodType.methodType(eventTypeClass))
+					.invoke(eventfactory);
+			MethodHandle isenabled = lookup
+					.findVirtual(eventTypeClass, "isEnabled", MethodType.methodType(boolean.class))
+					.bindTo(eventtype);
+			return new EventHandles(newevent, isenabled, begin, set, commit);
+		}
+	}
+}
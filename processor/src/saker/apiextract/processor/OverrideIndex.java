@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Memoizing index of the methods that are overridden by a method.
+ * <p>
+ * The overridden methods are computed for all methods of a type at once, when a method of the type is first queried.
+ * The candidates are looked up by name from the supertypes, whose methods are grouped by name only once per type, so
+ * {@link Elements#overrides(ExecutableElement, ExecutableElement, TypeElement)} is only called for methods with the
+ * same name and parameter count.
+ * <p>
+ * The class is not thread safe, it should only be used on the processing thread.
+ */
+final class OverrideIndex {
+	private final Elements elements;
+	private final Types types;
+
+	private final Map<TypeElement, List<TypeElement>> allSuperTypes = new HashMap<>();
+	private final Map<TypeElement, Map<String, List<ExecutableElement>>> methodsByName = new HashMap<>();
+	private final Map<TypeElement, Map<ExecutableElement, List<ExecutableElement>>> overriddenMethods = new HashMap<>();
+
+	public OverrideIndex(Elements elements, Types types) {
+		this.elements = elements;
+		this.types = types;
+	}
+
+	/**
+	 * Gets the methods that the given method overrides.
+	 * <p>
+	 * The result contains the overridden methods from all of the supertypes of the enclosing type, the methods of the
+	 * closer supertypes first.
+	 * 
+	 * @param method
+	 *            The method.
+	 * @return The overridden methods, or an empty list if the method doesn't override any.
+	 */
+	public List<ExecutableElement> getOverriddenMethods(ExecutableElement method) {
+		Element enclosing = method.getEnclosingElement();
+		if (!(enclosing instanceof TypeElement)) {
+			return Collections.emptyList();
+		}
+		List<ExecutableElement> result = getOverriddenMethods((TypeElement) enclosing).get(method);
+		if (result == null) {
+			return Collections.emptyList();
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if the given method overrides any method.
+	 * 
+	 * @param method
+	 *            The method.
+	 * @return <code>true</code> if the method overrides a method of a supertype.
+	 */
+	public boolean isOverriding(ExecutableElement method) {
+		return !getOverriddenMethods(method).isEmpty();
+	}
+
+	private Map<ExecutableElement, List<ExecutableElement>> getOverriddenMethods(TypeElement type) {
+		Map<ExecutableElement, List<ExecutableElement>> result = overriddenMethods.get(type);
+		if (result != null) {
+			return result;
+		}
+		result = new HashMap<>();
+		List<TypeElement> supertypes = getAllSuperTypes(type);
+		for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+			Set<Modifier> modifiers = method.getModifiers();
+			if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)) {
+				//cannot override
+				continue;
+			}
+			String name = method.getSimpleName().toString();
+			int paramcount = method.getParameters().size();
+			List<ExecutableElement> overridden = null;
+			for (TypeElement st : supertypes) {
+				List<ExecutableElement> candidates = getMethodsByName(st).get(name);
+				if (candidates == null) {
+					continue;
+				}
+				for (ExecutableElement candidate : candidates) {
+					if (candidate.getParameters().size() != paramcount) {
+						continue;
+					}
+					if (elements.overrides(method, candidate, type)) {
+						if (overridden == null) {
+							overridden = new ArrayList<>();
+						}
+						overridden.add(candidate);
+					}
+				}
+			}
+			if (overridden != null) {
+				result.put(method, overridden);
+			}
+		}
+		overriddenMethods.put(type, result);
+		return result;
+	}
+
+	private Map<String, List<ExecutableElement>> getMethodsByName(TypeElement type) {
+		Map<String, List<ExecutableElement>> result = methodsByName.get(type);
+		if (result != null) {
+			return result;
+		}
+		result = new HashMap<>();
+		for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+			Set<Modifier> modifiers = method.getModifiers();
+			if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)) {
+				//cannot be overridden
+				continue;
+			}
+			result.computeIfAbsent(method.getSimpleName().toString(), x -> new ArrayList<>(1)).add(method);
+		}
+		methodsByName.put(type, result);
+		return result;
+	}
+
+	/**
+	 * Gets the transitive supertypes of the type, the direct supertypes first.
+	 * <p>
+	 * The supertypes of the direct supertypes are memoized as well, so each type of a hierarchy is only visited once.
+	 */
+	private List<TypeElement> getAllSuperTypes(TypeElement type) {
+		List<TypeElement> result = allSuperTypes.get(type);
+		if (result != null) {
+			return result;
+		}
+		List<TypeElement> directsupertypes = new ArrayList<>();
+		for (TypeMirror st : types.directSupertypes(type.asType())) {
+			if (st.getKind() != TypeKind.DECLARED) {
+				continue;
+			}
+			directsupertypes.add((TypeElement) ((DeclaredType) st).asElement());
+		}
+		if (directsupertypes.isEmpty()) {
+			result = Collections.emptyList();
+		} else {
+			Set<TypeElement> collected = new LinkedHashSet<>(directsupertypes);
+			for (TypeElement st : directsupertypes) {
+				collected.addAll(getAllSuperTypes(st));
+			}
+			result = new ArrayList<>(collected);
+		}
+		allSuperTypes.put(type, result);
+		return result;
+	}
+}
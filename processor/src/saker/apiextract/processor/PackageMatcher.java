@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.QualifiedNameable;
+
+/**
+ * Matches qualified names against a set of included and excluded package names.
+ * <p>
+ * A name is in a package if it equals the package name, or it starts with the package name followed by a
+ * <code>'.'</code>. The package names are compiled into segment tries, and the results are memoized for each queried
+ * element.
+ * <p>
+ * The class is not thread safe, it should only be used on the processing thread.
+ */
+final class PackageMatcher {
+	private static final class Node {
+		protected final Map<String, Node> children = new HashMap<>();
+		protected boolean terminal;
+	}
+
+	private final Node includeRoot;
+	private final Node excludeRoot;
+	private final Map<Element, Boolean> results = new HashMap<>();
+
+	public PackageMatcher(Collection<String> includepackages, Collection<String> excludepackages) {
+		this.includeRoot = compile(includepackages);
+		this.excludeRoot = compile(excludepackages);
+	}
+
+	/**
+	 * Checks if the qualified name of the given element is in the included, but not in the excluded packages.
+	 * 
+	 * @param qn
+	 *            The package or type element.
+	 * @return <code>true</code> if the element matches.
+	 */
+	public boolean matches(QualifiedNameable qn) {
+		Boolean result = results.get(qn);
+		if (result == null) {
+			result = matches(qn.getQualifiedName());
+			results.put(qn, result);
+		}
+		return result;
+	}
+
+	public boolean matches(CharSequence qualifiedname) {
+		String name = qualifiedname.toString();
+		return isInPackages(includeRoot, name) && !isInPackages(excludeRoot, name);
+	}
+
+	private static boolean isInPackages(Node root, String name) {
+		if (root.children.isEmpty()) {
+			return false;
+		}
+		int len = name.length();
+		Node n = root;
+		for (int start = 0; start < len;) {
+			int end = name.indexOf('.', start);
+			if (end < 0) {
+				end = len;
+			}
+			n = n.children.get(name.substring(start, end));
+			if (n == null) {
+				return false;
+			}
+			if (n.terminal) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+
+	private static Node compile(Collection<String> packages) {
+		Node root = new Node();
+		for (String p : packages) {
+			Node n = root;
+			int len = p.length();
+			for (int start = 0; start < len;) {
+				int end = p.indexOf('.', start);
+				if (end < 0) {
+					end = len;
+				}
+				n = n.children.computeIfAbsent(p.substring(start, end), x -> new Node());
+				start = end + 1;
+			}
+			if (n != root) {
+				n.terminal = true;
+			}
+		}
+		return root;
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.lang.model.element.ElementKind;
+
+/**
+ * Collects the timings and counters of the processing, and writes them as a JSON report.
+ * <p>
+ * The phase times are measured on the processing thread. The wall time and the CPU time of the processing thread are
+ * recorded for each phase. If the stubs are generated in parallel, the CPU time of the worker threads is not included.
+ * <p>
+ * The generated types may be reported concurrently, the other methods should only be called on the processing thread.
+ */
+final class ProcessingStatistics {
+	public enum Phase {
+		/**
+		 * The collection of the annotated elements in the processing rounds.
+		 */
+		DISCOVERY("discovery"),
+		/**
+		 * The computation of the included elements based on the annotated elements.
+		 */
+		CLOSURE("closure"),
+		DOC_WARNINGS("docWarnings"),
+		/**
+		 * The creation of the API model from the included elements.
+		 */
+		MODEL("model"),
+		/**
+		 * The generation and the writing of the output.
+		 */
+		GENERATE("generate");
+
+		protected final String jsonName;
+
+		private Phase(String jsonName) {
+			this.jsonName = jsonName;
+		}
+	}
+
+	private static final int SLOWEST_TYPE_COUNT = 20;
+
+	private static final class GeneratedType {
+		protected final String binaryName;
+		protected final int byteCount;
+		protected final long nanos;
+
+		public GeneratedType(String binaryName, int byteCount, long nanos) {
+			this.binaryName = binaryName;
+			this.byteCount = byteCount;
+			this.nanos = nanos;
+		}
+	}
+
+	private final ThreadMXBean threadBean;
+	private final boolean cpuTimeSupported;
+
+	private final long[] phaseWallNanos = new long[Phase.values().length];
+	private final long[] phaseCpuNanos = new long[Phase.values().length];
+	private final long[] phaseStartWallNanos = new long[Phase.values().length];
+	private final long[] phaseStartCpuNanos = new long[Phase.values().length];
+
+	private int annotatedCount;
+	private int excludedCount;
+	private final Map<ElementKind, Integer> includedKindCounts = new EnumMap<>(ElementKind.class);
+
+	private final List<GeneratedType> generatedTypes = new ArrayList<>();
+	private long generatedByteCount;
+
+	public ProcessingStatistics() {
+		threadBean = ManagementFactory.getThreadMXBean();
+		boolean cpusupported;
+		try {
+			cpusupported = threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled();
+		} catch (UnsupportedOperationException e) {
+			cpusupported = false;
+		}
+		cpuTimeSupported = cpusupported;
+	}
+
+	public void startPhase(Phase phase) {
+		int idx = phase.ordinal();
+		phaseStartCpuNanos[idx] = getCurrentThreadCpuTime();
+		phaseStartWallNanos[idx] = System.nanoTime();
+	}
+
+	public void endPhase(Phase phase) {
+		long wall = System.nanoTime();
+		int idx = phase.ordinal();
+		phaseWallNanos[idx] += wall - phaseStartWallNanos[idx];
+		phaseCpuNanos[idx] += getCurrentThreadCpuTime() - phaseStartCpuNanos[idx];
+	}
+
+	public void setAnnotatedCounts(int annotatedcount, int excludedcount) {
+		this.annotatedCount = annotatedcount;
+		this.excludedCount = excludedcount;
+	}
+
+	public void addIncludedElement(ElementKind kind) {
+		includedKindCounts.merge(kind, 1, Integer::sum);
+	}
+
+	/**
+	 * Records the generation of a stub class.
+	 * <p>
+	 * This method is thread safe.
+	 * 
+	 * @param binaryname
+	 *            The binary name of the type.
+	 * @param bytecount
+	 *            The size of the generated class file.
+	 * @param nanos
+	 *            The time it took to generate the class file.
+	 */
+	public synchronized void addGeneratedType(String binaryname, int bytecount, long nanos) {
+		generatedTypes.add(new GeneratedType(binaryname, bytecount, nanos));
+		generatedByteCount += bytecount;
+	}
+
+	/**
+	 * Writes the report to the given path.
+	 * 
+	 * @param path
+	 *            The output path.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 */
+	public synchronized void writeTo(Path path) throws IOException {
+		Path parent = path.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		Files.write(path, toJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		sb.append("  \"phases\": {");
+		Phase[] phases = Phase.values();
+		for (int i = 0; i < phases.length; i++) {
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    \"").append(phases[i].jsonName).append("\": { \"wallNanos\": ").append(phaseWallNanos[i])
+					.append(", \"cpuNanos\": ").append(cpuTimeSupported ? phaseCpuNanos[i] : -1).append(" }");
+		}
+		sb.append("\n  },\n");
+
+		int includedcount = 0;
+		for (Integer c : includedKindCounts.values()) {
+			includedcount += c;
+		}
+		sb.append("  \"elements\": {\n");
+		sb.append("    \"annotated\": ").append(annotatedCount).append(",\n");
+		sb.append("    \"excluded\": ").append(excludedCount).append(",\n");
+		sb.append("    \"included\": ").append(includedcount).append(",\n");
+		sb.append("    \"expansionFactor\": ").append(String.format(Locale.ROOT, "%.3f",
+				annotatedCount == 0 ? 0d : (double) includedcount / annotatedCount)).append(",\n");
+		sb.append("    \"kinds\": {");
+		boolean first = true;
+		for (Entry<ElementKind, Integer> entry : includedKindCounts.entrySet()) {
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append("      \"").append(entry.getKey().name()).append("\": ").append(entry.getValue());
+		}
+		sb.append("\n    }\n");
+		sb.append("  },\n");
+
+		sb.append("  \"output\": {\n");
+		sb.append("    \"classes\": ").append(generatedTypes.size()).append(",\n");
+		sb.append("    \"bytes\": ").append(generatedByteCount).append("\n");
+		sb.append("  },\n");
+
+		List<GeneratedType> slowest = new ArrayList<>(generatedTypes);
+		slowest.sort((l, r) -> {
+			int cmp = Long.compare(r.nanos, l.nanos);
+			if (cmp != 0) {
+				return cmp;
+			}
+			return l.binaryName.compareTo(r.binaryName);
+		});
+		sb.append("  \"slowestTypes\": [");
+		for (int i = 0, n = Math.min(SLOWEST_TYPE_COUNT, slowest.size()); i < n; i++) {
+			GeneratedType gt = slowest.get(i);
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    { \"name\": ");
+			appendJsonString(sb, gt.binaryName);
+			sb.append(", \"nanos\": ").append(gt.nanos).append(", \"bytes\": ").append(gt.byteCount).append(" }");
+		}
+		sb.append("\n  ]\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private long getCurrentThreadCpuTime() {
+		if (!cpuTimeSupported) {
+			return 0;
+		}
+		return threadBean.getCurrentThreadCpuTime();
+	}
+
+	private static void appendJsonString(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"':
+				case '\\': {
+					sb.append('\\').append(c);
+					break;
+				}
+				default: {
+					if (c < 0x20) {
+						sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+					break;
+				}
+			}
+		}
+		sb.append('"');
+	}
+}
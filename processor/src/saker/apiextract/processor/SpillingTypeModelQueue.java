@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Queue of type models pending emission that spills them to a temporary file when the heap usage exceeds a budget.
+ * <p>
+ * The models are added in emission order. If the used heap is over the budget when a model is added, the models that
+ * are held in memory are appended to the spill file in their serialized form. The iteration reads back the spilled
+ * models sequentially, followed by the ones that are still in memory, so the order is kept, and only the model that
+ * is currently being emitted needs to be in memory. The queue can be iterated multiple times.
+ * <p>
+ * The used heap is determined by {@link Runtime}, and it includes the unreclaimed garbage as well, so the models may
+ * be spilled earlier than strictly necessary.
+ * <p>
+ * The class is not thread safe.
+ */
+final class SpillingTypeModelQueue implements Iterable<ApiTypeModel>, Closeable {
+	private final long maxHeapBytes;
+
+	private final List<ApiTypeModel> memoryTypes = new ArrayList<>();
+	private Path spillFile;
+	private DataOutputStream spillOut;
+	private int spilledCount;
+	private final List<DataInputStream> spillInputs = new ArrayList<>();
+
+	/**
+	 * Creates a new queue.
+	 * 
+	 * @param maxHeapBytes
+	 *            The heap usage in bytes over which the models are spilled.
+	 */
+	public SpillingTypeModelQueue(long maxHeapBytes) {
+		this.maxHeapBytes = maxHeapBytes;
+	}
+
+	/**
+	 * Adds a type model to the end of the queue.
+	 * 
+	 * @param type
+	 *            The type model.
+	 * @throws UncheckedIOException
+	 *             If the models failed to be spilled.
+	 */
+	public void add(ApiTypeModel type) {
+		memoryTypes.add(type);
+		Runtime rt = Runtime.getRuntime();
+		if (rt.totalMemory() - rt.freeMemory() <= maxHeapBytes) {
+			return;
+		}
+		try {
+			if (spillOut == null) {
+				spillFile = Files.createTempFile("saker.apiextract-", ".spill");
+				spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile), 64 * 1024));
+			}
+			for (ApiTypeModel t : memoryTypes) {
+				t.writeTo(spillOut);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to spill API type models to: " + spillFile, e);
+		}
+		spilledCount += memoryTypes.size();
+		memoryTypes.clear();
+	}
+
+	public int size() {
+		return spilledCount + memoryTypes.size();
+	}
+
+	/**
+	 * Gets the number of models that are spilled to the disk.
+	 * 
+	 * @return The spilled model count.
+	 */
+	public int getSpilledCount() {
+		return spilledCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The returned iterator throws {@link UncheckedIOException} if the spilled models cannot be read. The file is
+	 * released when the iteration is finished or the queue is closed.
+	 */
+	@Override
+	public Iterator<ApiTypeModel> iterator() {
+		if (spilledCount == 0) {
+			return memoryTypes.iterator();
+		}
+		try {
+			spillOut.flush();
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(Files.newInputStream(spillFile), 64 * 1024));
+			spillInputs.add(in);
+			return new SpillIterator(in, spilledCount, memoryTypes.iterator());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read spilled API type models from: " + spillFile, e);
+		}
+	}
+
+	/**
+	 * Deletes the spill file.
+	 * 
+	 * @throws UncheckedIOException
+	 *             If the spill file failed to be closed or deleted.
+	 */
+	@Override
+	public void close() {
+		memoryTypes.clear();
+		if (spillOut == null) {
+			return;
+		}
+		try {
+			try {
+				for (DataInputStream in : spillInputs) {
+					in.close();
+				}
+				spillOut.close();
+			} finally {
+				spillInputs.clear();
+				spillOut = null;
+				spilledCount = 0;
+				Files.deleteIfExists(spillFile);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to delete API type model spill file: " + spillFile, e);
+		}
+	}
+
+	private final class SpillIterator implements Iterator<ApiTypeModel> {
+		protected final DataInputStream in;
+		protected int remaining;
+		protected final Iterator<ApiTypeModel> memoryIterator;
+
+		public SpillIterator(DataInputStream in, int remaining, Iterator<ApiTypeModel> memoryIterator) {
+			this.in = in;
+			this.remaining = remaining;
+			this.memoryIterator = memoryIterator;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0 || memoryIterator.hasNext();
+		}
+
+		@Override
+		public ApiTypeModel next() {
+			if (remaining == 0) {
+				return memoryIterator.next();
+			}
+			try {
+				ApiTypeModel result = ApiTypeModel.readFrom(in);
+				if (--remaining == 0) {
+					in.close();
+					spillInputs.remove(in);
+				}
+				return result;
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to read spilled API type models from: " + spillFile, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.IntersectionType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.util.Elements;
+
+/**
+ * Per-compilation cache of the binary names, internal names and descriptors of types and methods.
+ * <p>
+ * The names of commonly used types are requested for most members, so they are only computed once per compilation.
+ * <p>
+ * The class is not thread safe, it should only be used on the processing thread.
+ */
+final class SymbolCache {
+	private final Elements elements;
+
+	private final Map<TypeElement, String> binaryNames = new HashMap<>();
+	private final Map<TypeElement, String> internalNames = new HashMap<>();
+	private final Map<TypeElement, String> descriptors = new HashMap<>();
+	private final Map<ExecutableElement, String> methodDescriptors = new HashMap<>();
+
+	public SymbolCache(Elements elements) {
+		this.elements = elements;
+	}
+
+	public String getBinaryName(TypeElement type) {
+		String result = binaryNames.get(type);
+		if (result == null) {
+			result = elements.getBinaryName(type).toString();
+			binaryNames.put(type, result);
+		}
+		return result;
+	}
+
+	public String getInternalName(TypeElement type) {
+		String result = internalNames.get(type);
+		if (result == null) {
+			result = getBinaryName(type).replace('.', '/');
+			internalNames.put(type, result);
+		}
+		return result;
+	}
+
+	public String getDescriptor(TypeElement type) {
+		String result = descriptors.get(type);
+		if (result == null) {
+			result = "L" + getInternalName(type) + ";";
+			descriptors.put(type, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the descriptor of the method.
+	 * <p>
+	 * The implicit parameters must be the same for each call with the same method, as the result is cached.
+	 * 
+	 * @param ee
+	 *            The method.
+	 * @param implicitparameters
+	 *            The types of the implicit parameters that are prepended to the declared parameters.
+	 * @return The method descriptor.
+	 */
+	public String getMethodDescriptor(ExecutableElement ee, List<TypeElement> implicitparameters) {
+		String result = methodDescriptors.get(ee);
+		if (result == null) {
+			StringBuilder sb = new StringBuilder();
+			sb.append('(');
+			for (TypeElement impp : implicitparameters) {
+				sb.append(getDescriptor(impp));
+			}
+			for (VariableElement ptm : ee.getParameters()) {
+				appendDescriptor(sb, ptm.asType());
+			}
+			sb.append(')');
+			appendDescriptor(sb, ee.getReturnType());
+			result = sb.toString();
+			methodDescriptors.put(ee, result);
+		}
+		return result;
+	}
+
+	public String getDescriptor(TypeMirror tm) {
+		TypeKind kind = tm.getKind();
+		switch (kind) {
+			case BOOLEAN: {
+				return "Z";
+			}
+			case BYTE: {
+				return "B";
+			}
+			case CHAR: {
+				return "C";
+			}
+			case DOUBLE: {
+				return "D";
+			}
+			case FLOAT: {
+				return "F";
+			}
+			case INT: {
+				return "I";
+			}
+			case LONG: {
+				return "J";
+			}
+			case SHORT: {
+				return "S";
+			}
+			case VOID: {
+				return "V";
+			}
+			case DECLARED: {
+				return getDescriptor((TypeElement) ((DeclaredType) tm).asElement());
+			}
+			case TYPEVAR: {
+				TypeMirror erasure = getTypeVariableErasureBound((TypeVariable) tm);
+				if (erasure == null) {
+					return "Ljava/lang/Object;";
+				}
+				return getDescriptor(erasure);
+			}
+			default: {
+				StringBuilder sb = new StringBuilder();
+				appendDescriptor(sb, tm);
+				return sb.toString();
+			}
+		}
+	}
+
+	public void appendDescriptor(StringBuilder sb, TypeMirror tm) {
+		TypeKind kind = tm.getKind();
+		switch (kind) {
+			case ARRAY: {
+				sb.append('[');
+				appendDescriptor(sb, ((ArrayType) tm).getComponentType());
+				break;
+			}
+			case EXECUTABLE: {
+				ExecutableType et = (ExecutableType) tm;
+				sb.append('(');
+				for (TypeMirror ptm : et.getParameterTypes()) {
+					appendDescriptor(sb, ptm);
+				}
+				sb.append(')');
+				appendDescriptor(sb, et.getReturnType());
+				break;
+			}
+			case BOOLEAN:
+			case BYTE:
+			case CHAR:
+			case DOUBLE:
+			case FLOAT:
+			case INT:
+			case LONG:
+			case SHORT:
+			case VOID:
+			case DECLARED:
+			case TYPEVAR: {
+				sb.append(getDescriptor(tm));
+				break;
+			}
+			case ERROR:
+			case INTERSECTION:
+			case UNION:
+			case WILDCARD:
+			default: {
+				throw new IllegalArgumentException(kind.toString());
+			}
+		}
+	}
+
+	public String getInternalName(TypeMirror tm) {
+		TypeKind kind = tm.getKind();
+		switch (kind) {
+			case DECLARED: {
+				TypeElement elem = (TypeElement) ((DeclaredType) tm).asElement();
+				return getInternalName(elem);
+			}
+			case TYPEVAR: {
+				TypeVariable tv = (TypeVariable) tm;
+				return getInternalName(tv.getUpperBound());
+			}
+			case INTERSECTION: {
+				IntersectionType is = (IntersectionType) tm;
+				List<? extends TypeMirror> bounds = is.getBounds();
+				if (bounds == null || bounds.isEmpty()) {
+					return null;
+				}
+				return getInternalName(bounds.get(0));
+			}
+			default: {
+				throw new IllegalArgumentException(kind.toString());
+			}
+		}
+	}
+
+	private static TypeMirror getTypeVariableErasureBound(TypeVariable tv) {
+		TypeParameterElement elem = (TypeParameterElement) tv.asElement();
+		List<? extends TypeMirror> bounds = elem.getBounds();
+		if (bounds.isEmpty()) {
+			return null;
+		}
+		return bounds.get(0);
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.FileObject;
+
+/**
+ * Bounded queue of output files that are written by a dedicated writer thread.
+ * <p>
+ * The file objects are created on the processing thread, and the writer thread opens their output streams and writes
+ * the contents. This way the bytecode generation is not blocked by the output I/O. If the queue is full, adding a
+ * file blocks until the writer catches up.
+ * <p>
+ * If a write fails, the remaining files are not written, and the failure is thrown to the processing thread when the
+ * next file is added or the queue is closed.
+ * <p>
+ * The methods should only be called on the processing thread.
+ */
+final class WriteBehindQueue implements Closeable {
+	private static final PendingWrite END = new PendingWrite(null, null, null);
+	private static final long WRITER_CHECK_INTERVAL_MILLIS = 100;
+
+	private final BlockingQueue<PendingWrite> queue;
+	private final Thread writerThread;
+	private volatile UncheckedIOException failure;
+	private boolean closed;
+
+	/**
+	 * Creates a new queue and starts the writer thread.
+	 * 
+	 * @param capacity
+	 *            The maximum number of files that are pending to be written.
+	 */
+	public WriteBehindQueue(int capacity) {
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.writerThread = new Thread(this::runWriter, "saker.apiextract output writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Adds a file to be written.
+	 * 
+	 * @param file
+	 *            The file object that is already created.
+	 * @param bytes
+	 *            The contents of the file. Must not be modified afterwards.
+	 * @param name
+	 *            The name of the file for error reporting.
+	 * @throws UncheckedIOException
+	 *             If a previously added file failed to be written, or the thread is interrupted.
+	 */
+	public void write(FileObject file, byte[] bytes, String name) {
+		checkFailure();
+		try {
+			enqueue(new PendingWrite(file, bytes, name));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException("Interrupted while writing: " + name, new InterruptedIOException());
+		}
+	}
+
+	/**
+	 * Waits for the pending files to be written and stops the writer thread.
+	 * 
+	 * @throws UncheckedIOException
+	 *             If a file failed to be written, or the thread is interrupted.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			enqueue(END);
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException("Interrupted while waiting for the output to be written.",
+					new InterruptedIOException());
+		}
+		checkFailure();
+		if (!queue.isEmpty()) {
+			//the end wasn't taken
+			throw writerStopped();
+		}
+	}
+
+	/**
+	 * Adds the write to the queue, and waits if it is full.
+	 * <p>
+	 * The writer thread only stops when the end is signaled, but it is checked periodically, so the processing thread
+	 * doesn't block forever if it dies unexpectedly.
+	 */
+	private void enqueue(PendingWrite w) throws InterruptedException {
+		while (!queue.offer(w, WRITER_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (!writerThread.isAlive()) {
+				checkFailure();
+				throw writerStopped();
+			}
+		}
+	}
+
+	private static UncheckedIOException writerStopped() {
+		return new UncheckedIOException(new IOException("Output writer stopped unexpectedly."));
+	}
+
+	private void checkFailure() {
+		UncheckedIOException f = failure;
+		if (f != null) {
+			throw new UncheckedIOException(f.getMessage(), f.getCause());
+		}
+	}
+
+	private void runWriter() {
+		while (true) {
+			PendingWrite w;
+			try {
+				w = queue.take();
+			} catch (InterruptedException e) {
+				//keep draining until the end is signaled, so the processing thread doesn't block
+				failure = new UncheckedIOException("Output writer interrupted.", new InterruptedIOException());
+				continue;
+			}
+			if (w == END) {
+				return;
+			}
+			if (failure != null) {
+				//drain the queue so the processing thread doesn't block
+				continue;
+			}
+			try (OutputStream os = w.file.openOutputStream()) {
+				os.write(w.bytes);
+			} catch (IOException e) {
+				failure = new UncheckedIOException("Failed to write: " + w.name, e);
+			} catch (Throwable e) {
+				//record errors as well, and keep draining the queue
+				failure = new UncheckedIOException("Failed to write: " + w.name, new IOException(e));
+			}
+		}
+	}
+
+	private static final class PendingWrite {
+		protected final FileObject file;
+		protected final byte[] bytes;
+		protected final String name;
+
+		public PendingWrite(FileObject file, byte[] bytes, String name) {
+			this.file = file;
+			this.bytes = bytes;
+			this.name = name;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+/**
+ * Checks that the ABI hash file is readable as properties, and the packages with non-ASCII names have different keys.
+ */
+@SakerTest
+public class ApiAbiHashTest extends SakerTestCase {
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		ApiAbiHash abihash = new ApiAbiHash();
+		abihash.add("a.\u043f.First", new byte[] { 1 });
+		abihash.add("a.\u0434.Second", new byte[] { 2 });
+		abihash.add("a.b c=d.Third", new byte[] { 3 });
+		abihash.add("Unnamed", new byte[] { 4 });
+		byte[] bytes = abihash.toByteArray();
+
+		for (byte b : bytes) {
+			assertTrue(b > 0, "Non-ASCII output.");
+		}
+		assertTrue(new String(bytes, StandardCharsets.US_ASCII).contains("package.a.\\u043f="), "Key is not escaped.");
+
+		Properties props = new Properties();
+		props.load(new ByteArrayInputStream(bytes));
+		assertEquals(new TreeSet<>(props.stringPropertyNames()), new TreeSet<>(Arrays.asList("api",
+				"package.", "package.a.\u043f", "package.a.\u0434", "package.a.b c=d")));
+		assertEquals(new TreeSet<>(props.values()).size(), props.size(), "Hashes are not distinct.");
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import saker.build.thirdparty.org.objectweb.asm.ClassWriter;
+import saker.build.thirdparty.org.objectweb.asm.Opcodes;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+/**
+ * Checks that {@link ApiDiff} reports each kind of binary incompatible change.
+ * <p>
+ * The compared classes are generated with ASM, and written to JARs with {@link ApiJarWriter}.
+ */
+@SakerTest
+public class ApiDiffTest extends SakerTestCase {
+	private static final String CLASS_NAME = "test/Api";
+	private static final int PUBLIC_STATIC_FINAL = Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL;
+
+	private Path dir;
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		dir = Files.createTempDirectory("saker.apiextract-difftest");
+		try {
+			byte[] baseline = createClass(Opcodes.ACC_PUBLIC, cw -> {
+				cw.visitField(Opcodes.ACC_PUBLIC, "field", "I", null, null).visitEnd();
+				cw.visitField(PUBLIC_STATIC_FINAL, "CONSTANT", "I", null, 1).visitEnd();
+				cw.visitMethod(Opcodes.ACC_PUBLIC, "method", "()V", null, null).visitEnd();
+			}, "java/lang/Runnable");
+
+			List<ApiDiff.Change> same = compare(baseline, baseline);
+			assertEquals(same, Collections.emptyList());
+
+			assertIncompatible(baseline, createClass(Opcodes.ACC_PUBLIC, cw -> {
+				cw.visitField(PUBLIC_STATIC_FINAL, "CONSTANT", "I", null, 1).visitEnd();
+				cw.visitMethod(Opcodes.ACC_PUBLIC, "method", "()V", null, null).visitEnd();
+			}, "java/lang/Runnable"), "field", "field removed");
+
+			assertIncompatible(baseline, createClass(Opcodes.ACC_PUBLIC, cw -> {
+				cw.visitField(Opcodes.ACC_PUBLIC, "field", "I", null, null).visitEnd();
+				cw.visitField(PUBLIC_STATIC_FINAL, "CONSTANT", "I", null, 1).visitEnd();
+			}, "java/lang/Runnable"), "method()V", "method removed");
+
+			assertIncompatible(baseline, createClass(Opcodes.ACC_PUBLIC, cw -> {
+				cw.visitField(Opcodes.ACC_PUBLIC, "field", "I", null, null).visitEnd();
+				cw.visitField(PUBLIC_STATIC_FINAL, "CONSTANT", "I", null, 1).visitEnd();
+				cw.visitMethod(Opcodes.ACC_PROTECTED, "method", "()V", null, null).visitEnd();
+			}, "java/lang/Runnable"), "method()V", "access changed: public -> protected");
+
+			assertIncompatible(baseline, createClass(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, cw -> {
+				cw.visitField(Opcodes.ACC_PUBLIC, "field", "I", null, null).visitEnd();
+				cw.visitField(PUBLIC_STATIC_FINAL, "CONSTANT", "I", null, 1).visitEnd();
+				cw.visitMethod(Opcodes.ACC_PUBLIC, "method", "()V", null, null).visitEnd();
+			}, "java/lang/Runnable"), null, "became final");
+
+			assertIncompatible(baseline, createClass(Opcodes.ACC_PUBLIC, cw -> {
+				cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "field", "I", null, null).visitEnd();
+				cw.visitField(PUBLIC_STATIC_FINAL, "CONSTANT", "I", null, 1).visitEnd();
+				cw.visitMethod(Opcodes.ACC_PUBLIC, "method", "()V", null, null).visitEnd();
+			}, "java/lang/Runnable"), "field", "became static");
+
+			assertIncompatible(baseline, createClass(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, cw -> {
+				cw.visitField(Opcodes.ACC_PUBLIC, "field", "I", null, null).visitEnd();
+				cw.visitField(PUBLIC_STATIC_FINAL, "CONSTANT", "I", null, 1).visitEnd();
+				cw.visitMethod(Opcodes.ACC_PUBLIC, "method", "()V", null, null).visitEnd();
+			}, "java/lang/Runnable"), null, "became abstract");
+
+			assertIncompatible(baseline, createClass(Opcodes.ACC_PUBLIC, cw -> {
+				cw.visitField(Opcodes.ACC_PUBLIC, "field", "I", null, null).visitEnd();
+				cw.visitField(PUBLIC_STATIC_FINAL, "CONSTANT", "I", null, 2).visitEnd();
+				cw.visitMethod(Opcodes.ACC_PUBLIC, "method", "()V", null, null).visitEnd();
+			}, "java/lang/Runnable"), "CONSTANT", "constant value changed: 1 -> 2");
+
+			assertIncompatible(baseline, createClass(Opcodes.ACC_PUBLIC, cw -> {
+				cw.visitField(Opcodes.ACC_PUBLIC, "field", "I", null, null).visitEnd();
+				cw.visitField(PUBLIC_STATIC_FINAL, "CONSTANT", "I", null, 1).visitEnd();
+				cw.visitMethod(Opcodes.ACC_PUBLIC, "method", "()V", null, null).visitEnd();
+			}), null, "interface removed: java/lang/Runnable");
+		} finally {
+			deleteDirectory(dir);
+		}
+	}
+
+	private void assertIncompatible(byte[] baseline, byte[] current, String member, String description)
+			throws IOException {
+		List<ApiDiff.Change> changes = compare(baseline, current);
+		assertEquals(changes.size(), 1, changes.toString());
+		ApiDiff.Change change = changes.get(0);
+		assertEquals(change.getClassName(), CLASS_NAME.replace('/', '.'));
+		assertEquals(change.getMember(), member);
+		assertEquals(change.getDescription(), description);
+		assertTrue(change.isIncompatible(), change.toString());
+	}
+
+	private List<ApiDiff.Change> compare(byte[] baseline, byte[] current) throws IOException {
+		try (ApiJarReader baselinejar = ApiJarReader.open(writeJar("baseline.jar", baseline));
+				ApiJarReader currentjar = ApiJarReader.open(writeJar("current.jar", current))) {
+			return ApiDiff.compare(baselinejar, currentjar, 1);
+		}
+	}
+
+	private Path writeJar(String name, byte[] classbytes) throws IOException {
+		Path path = dir.resolve(name);
+		try (OutputStream os = Files.newOutputStream(path)) {
+			ApiJarWriter.write(os,
+					Collections.singletonList(ApiJarWriter.compress(CLASS_NAME + ".class", classbytes)));
+		}
+		return path;
+	}
+
+	private static byte[] createClass(int access, Consumer<ClassWriter> members, String... interfaces) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_8, access | Opcodes.ACC_SUPER, CLASS_NAME, null, "java/lang/Object", interfaces);
+		members.accept(cw);
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static void deleteDirectory(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Iterator<Path> it = files.iterator(); it.hasNext();) {
+				Files.delete(it.next());
+			}
+		}
+		Files.delete(dir);
+	}
+}
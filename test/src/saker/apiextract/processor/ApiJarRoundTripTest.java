@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+/**
+ * Writes JARs with {@link ApiJarWriter} and checks that {@link ApiJarReader} and {@link ZipFile} read back the same
+ * entries.
+ * <p>
+ * The ZIP64 end of central directory is tested by writing more entries than the 16 bit entry count can hold.
+ */
+@SakerTest
+public class ApiJarRoundTripTest extends SakerTestCase {
+	private static final int ZIP64_ENTRY_COUNT = 0xFFFF + 16;
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		Path dir = Files.createTempDirectory("saker.apiextract-jartest");
+		try {
+			testRoundTrip(dir.resolve("small.jar"), createEntries(64, 4096), false);
+			testRoundTrip(dir.resolve("zip64.jar"), createEntries(ZIP64_ENTRY_COUNT, 64), true);
+		} finally {
+			deleteDirectory(dir);
+		}
+	}
+
+	private static void testRoundTrip(Path jar, Map<String, byte[]> entries, boolean zip64) throws IOException {
+		byte[] jarbytes = writeJar(entries);
+		assertEquals(hasZip64EndOfCentralDirectory(jarbytes), zip64);
+		//the output is reproducible regardless of the entry order
+		List<String> reversed = new ArrayList<>(entries.keySet());
+		Collections.reverse(reversed);
+		Map<String, byte[]> reversedentries = new LinkedHashMap<>();
+		for (String name : reversed) {
+			reversedentries.put(name, entries.get(name));
+		}
+		assertTrue(Arrays.equals(jarbytes, writeJar(reversedentries)), "Output is not reproducible.");
+
+		Files.write(jar, jarbytes);
+		try (ApiJarReader reader = ApiJarReader.open(jar)) {
+			assertEquals(reader.getEntryNames().size(), entries.size());
+			Iterator<String> it = reader.getEntryNames().iterator();
+			assertEquals(it.next(), ApiJarWriter.MANIFEST_ENTRY_NAME);
+			for (Entry<String, byte[]> entry : entries.entrySet()) {
+				assertTrue(Arrays.equals(reader.getBytes(entry.getKey()), entry.getValue()),
+						"Different contents: " + entry.getKey());
+			}
+			assertNull(reader.getBytes("not/existing.class"));
+		}
+		try (ZipFile zip = new ZipFile(jar.toFile())) {
+			assertEquals(zip.size(), entries.size());
+			for (Entry<String, byte[]> entry : entries.entrySet()) {
+				ZipEntry ze = zip.getEntry(entry.getKey());
+				assertNonNull(ze, entry.getKey());
+				try (InputStream in = zip.getInputStream(ze)) {
+					assertTrue(Arrays.equals(readAll(in), entry.getValue()), "Different contents: " + entry.getKey());
+				}
+			}
+		}
+	}
+
+	private static byte[] writeJar(Map<String, byte[]> entries) throws IOException {
+		List<ApiJarWriter.CompressedEntry> compressed = new ArrayList<>(entries.size());
+		for (Entry<String, byte[]> entry : entries.entrySet()) {
+			compressed.add(ApiJarWriter.compress(entry.getKey(), entry.getValue()));
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ApiJarWriter.write(baos, compressed);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Creates the entries with alternating compressible and random contents, so both stored and deflated entries are
+	 * written.
+	 */
+	private static Map<String, byte[]> createEntries(int count, int maxsize) {
+		Random random = new Random(count);
+		Map<String, byte[]> result = new LinkedHashMap<>();
+		result.put(ApiJarWriter.MANIFEST_ENTRY_NAME, ApiJarWriter.getManifestBytes());
+		result.put("empty/Empty.class", new byte[0]);
+		result.put("p\u00e9/N\u00e1me.class", new byte[] { 1, 2, 3 });
+		while (result.size() < count) {
+			byte[] bytes = new byte[random.nextInt(maxsize)];
+			if (result.size() % 2 == 0) {
+				random.nextBytes(bytes);
+			} else {
+				Arrays.fill(bytes, (byte) result.size());
+			}
+			result.put("p" + (result.size() % 100) + "/C" + result.size() + ".class", bytes);
+		}
+		return result;
+	}
+
+	private static boolean hasZip64EndOfCentralDirectory(byte[] jarbytes) {
+		//the locator directly precedes the end of central directory record, which has no comment
+		int locator = jarbytes.length - 22 - 20;
+		return locator >= 0
+				&& ByteBuffer.wrap(jarbytes).order(ByteOrder.LITTLE_ENDIAN).getInt(locator) == 0x07064b50;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		for (int read; (read = in.read(buf)) > 0;) {
+			baos.write(buf, 0, read);
+		}
+		return baos.toByteArray();
+	}
+
+	private static void deleteDirectory(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Iterator<Path> it = files.iterator(); it.hasNext();) {
+				Files.delete(it.next());
+			}
+		}
+		Files.delete(dir);
+	}
+}
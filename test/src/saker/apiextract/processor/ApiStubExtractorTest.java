@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import saker.build.thirdparty.org.objectweb.asm.ClassWriter;
+import saker.build.thirdparty.org.objectweb.asm.MethodVisitor;
+import saker.build.thirdparty.org.objectweb.asm.Opcodes;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+/**
+ * Checks that {@link ApiStubExtractor} creates the same type models and stubs from class files as the processor.
+ * <p>
+ * The input class files are generated with ASM, and use the attributes of newer Java versions, such as
+ * <code>PermittedSubclasses</code> and <code>Record</code>.
+ */
+@SakerTest
+public class ApiStubExtractorTest extends SakerTestCase {
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		ApiTypeModel shape = new ApiTypeModel(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "test/Shape", null,
+				"java/lang/Object", null, Collections.emptyList(),
+				Arrays.asList(
+						new ApiFieldModel(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "SIDES", "I",
+								null, 4, Collections.emptyList()),
+						new ApiMethodModel(Opcodes.ACC_PUBLIC, "area", "()I", null, null, new String[0], new int[0],
+								Collections.emptyList(), null)));
+		ApiTypeModel point = new ApiTypeModel(Opcodes.V1_8,
+				Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, "test/Point", null, "java/lang/Record",
+				null, Collections.emptyList(),
+				Arrays.asList(
+						new ApiMethodModel(Opcodes.ACC_PUBLIC, "<init>", "(II)V", null, null,
+								new String[] { "x", "y" }, new int[] { 0, 0 }, Collections.emptyList(), null),
+						new ApiMethodModel(Opcodes.ACC_PUBLIC, "x", "()I", null, null, new String[0], new int[0],
+								Collections.emptyList(), null)));
+
+		ApiInclusionIndex index = new ApiInclusionIndex();
+		index.add(shape);
+		index.add(point);
+
+		Map<String, byte[]> classfiles = new TreeMap<>();
+		classfiles.put("test/Shape.class", createSealedClass());
+		classfiles.put("test/Point.class", createRecord());
+
+		Iterator<ApiInclusionIndex.TypeEntry> it = index.getTypes().iterator();
+		assertEquals(ApiStubExtractor.readTypeModel(it.next(), classfiles.get("test/Point.class")), point);
+		assertEquals(ApiStubExtractor.readTypeModel(it.next(), classfiles.get("test/Shape.class")), shape);
+
+		Path dir = Files.createTempDirectory("saker.apiextract-extractortest");
+		try {
+			Files.createDirectories(dir.resolve("test"));
+			for (Map.Entry<String, byte[]> entry : classfiles.entrySet()) {
+				Files.write(dir.resolve(entry.getKey()), entry.getValue());
+			}
+			Map<String, byte[]> stubs = ApiStubExtractor.extract(index, Collections.singletonList(dir),
+					ApiStubGenerator.BodyPolicy.THROW, true, 2);
+			assertEquals(stubs.keySet(), classfiles.keySet());
+			assertTrue(Arrays.equals(stubs.get("test/Shape.class"),
+					ApiStubGenerator.generate(shape, ApiStubGenerator.BodyPolicy.THROW, true)));
+			assertTrue(Arrays.equals(stubs.get("test/Point.class"),
+					ApiStubGenerator.generate(point, ApiStubGenerator.BodyPolicy.THROW, true)));
+		} finally {
+			deleteDirectory(dir);
+		}
+	}
+
+	/**
+	 * Creates <code>public sealed class Shape permits Circle</code> with a constant field and a method.
+	 */
+	private static byte[] createSealedClass() {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "test/Shape", null, "java/lang/Object", null);
+		cw.visitPermittedSubclass("test/Circle");
+		cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "SIDES", "I", null, 4).visitEnd();
+		cw.visitField(Opcodes.ACC_PRIVATE, "cache", "I", null, null).visitEnd();
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "area", "()I", null, null);
+		mv.visitCode();
+		mv.visitInsn(Opcodes.ICONST_0);
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	/**
+	 * Creates <code>public record Point(int x, int y)</code> with the canonical constructor and an accessor.
+	 */
+	private static byte[] createRecord() {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_RECORD,
+				"test/Point", null, "java/lang/Record", null);
+		cw.visitRecordComponent("x", "I", null).visitEnd();
+		cw.visitRecordComponent("y", "I", null).visitEnd();
+		cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "x", "I", null, null).visitEnd();
+		cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "y", "I", null, null).visitEnd();
+
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(II)V", null, null);
+		mv.visitParameter("x", 0);
+		mv.visitParameter("y", 0);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Record", "<init>", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "x", "()I", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, "test/Point", "x", "I");
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static void deleteDirectory(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			List<Path> paths = new ArrayList<>();
+			files.forEach(paths::add);
+			Collections.reverse(paths);
+			for (Path p : paths) {
+				Files.delete(p);
+			}
+		}
+	}
+}
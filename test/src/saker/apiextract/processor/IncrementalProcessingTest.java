@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import saker.apiextract.api.PublicApi;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+/**
+ * Runs the processor through the {@link JavaCompiler} multiple times on the same output directory, and checks the
+ * outputs of the incremental and streaming generation.
+ */
+@SakerTest
+public class IncrementalProcessingTest extends SakerTestCase {
+	private static final String INDEX_FILE_NAME = "saker.apiextract.index";
+	private static final String JAR_FILE_NAME = "api.jar";
+
+	private static final FileTime PAST_TIME = FileTime.fromMillis(1_000_000_000_000L);
+
+	private static final Map<String, String> SOURCES = new TreeMap<>();
+	static {
+		SOURCES.put("test.api.Kept", "package test.api;\n" //
+				+ "@saker.apiextract.api.PublicApi\n" //
+				+ "public class Kept {\n" //
+				+ "	public void method(int value) { }\n" //
+				+ "}\n");
+		SOURCES.put("test.api.Removed", "package test.api;\n" //
+				+ "@saker.apiextract.api.PublicApi\n" //
+				+ "public class Removed {\n" //
+				+ "	@saker.apiextract.api.PublicApi\n" //
+				+ "	public static class Inner { }\n" //
+				+ "	public Kept kept() { return null; }\n" //
+				+ "}\n");
+		SOURCES.put("test.api.Outer", "package test.api;\n" //
+				+ "@saker.apiextract.api.PublicApi\n" //
+				+ "public class Outer {\n" //
+				+ "	public Generated generated() { return null; }\n" //
+				+ "}\n");
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		Path dir = Files.createTempDirectory("saker.apiextract-incrementaltest");
+		try {
+			testIncrementalStubs(dir.resolve("stubs"));
+			testIncrementalJar(dir.resolve("jar"));
+			testStreaming(dir.resolve("streaming"), dir.resolve("notstreaming"));
+		} finally {
+			deleteDirectory(dir);
+		}
+	}
+
+	private static void testIncrementalStubs(Path outdir) throws IOException {
+		compile(outdir, Arrays.asList("test.api.Kept", "test.api.Removed"), "-Asaker.apiextract.incremental=true");
+		Path kept = outdir.resolve("test/api/Kept.class");
+		Path removed = outdir.resolve("test/api/Removed.class");
+		Path removedinner = outdir.resolve("test/api/Removed$Inner.class");
+		Path index = outdir.resolve(INDEX_FILE_NAME);
+		assertTrue(Files.isRegularFile(kept), "Missing stub: " + kept);
+		assertTrue(Files.isRegularFile(removed), "Missing stub: " + removed);
+		assertTrue(Files.isRegularFile(removedinner), "Missing stub: " + removedinner);
+		byte[] indexbytes = Files.readAllBytes(index);
+		Files.setLastModifiedTime(kept, PAST_TIME);
+		Files.setLastModifiedTime(index, PAST_TIME);
+
+		compile(outdir, Arrays.asList("test.api.Kept"), "-Asaker.apiextract.incremental=true");
+		assertEquals(Files.getLastModifiedTime(kept), PAST_TIME, "Unchanged stub was rewritten.");
+		assertTrue(Files.notExists(removed), "Stale stub was not deleted: " + removed);
+		assertTrue(Files.notExists(removedinner), "Stale stub was not deleted: " + removedinner);
+		assertTrue(!PAST_TIME.equals(Files.getLastModifiedTime(index)), "Index was not rewritten.");
+		assertTrue(!Arrays.equals(Files.readAllBytes(index), indexbytes), "Index contents didn't change.");
+	}
+
+	private static void testIncrementalJar(Path outdir) throws IOException {
+		List<String> allsources = Arrays.asList("test.api.Kept", "test.api.Removed");
+		String[] options = { "-Asaker.apiextract.incremental=true",
+				"-Asaker.apiextract.output_jar=" + JAR_FILE_NAME };
+		Path jar = outdir.resolve(JAR_FILE_NAME);
+
+		compile(outdir, allsources, options);
+		assertEquals(getJarEntryNames(jar), Arrays.asList(ApiJarWriter.MANIFEST_ENTRY_NAME, "test/api/Kept.class",
+				"test/api/Removed$Inner.class", "test/api/Removed.class"));
+		Files.setLastModifiedTime(jar, PAST_TIME);
+
+		compile(outdir, allsources, options);
+		assertEquals(Files.getLastModifiedTime(jar), PAST_TIME, "Up to date JAR was rewritten.");
+
+		compile(outdir, Arrays.asList("test.api.Kept"), options);
+		assertTrue(!PAST_TIME.equals(Files.getLastModifiedTime(jar)), "JAR was not rewritten.");
+		assertEquals(getJarEntryNames(jar), Arrays.asList(ApiJarWriter.MANIFEST_ENTRY_NAME, "test/api/Kept.class"));
+	}
+
+	/**
+	 * Checks that the streaming generation writes the same outputs when a referenced type is only generated in a later
+	 * round.
+	 */
+	private static void testStreaming(Path streamingdir, Path notstreamingdir) throws IOException {
+		List<String> sources = Arrays.asList("test.api.Kept", "test.api.Outer");
+		compile(streamingdir, sources, "-Asaker.apiextract.streaming=true");
+		compile(notstreamingdir, sources);
+
+		Map<String, byte[]> streamingfiles = readFiles(streamingdir);
+		Map<String, byte[]> notstreamingfiles = readFiles(notstreamingdir);
+		assertEquals(streamingfiles.keySet(), new TreeSet<>(Arrays.asList("test/api/Generated.class",
+				"test/api/Kept.class", "test/api/Outer.class")));
+		assertEquals(streamingfiles.keySet(), notstreamingfiles.keySet());
+		for (Map.Entry<String, byte[]> entry : streamingfiles.entrySet()) {
+			assertTrue(Arrays.equals(entry.getValue(), notstreamingfiles.get(entry.getKey())),
+					"Different streamed stub: " + entry.getKey());
+		}
+	}
+
+	private static void compile(Path outdir, List<String> sourcenames, String... options) throws IOException {
+		Files.createDirectories(outdir);
+		List<JavaFileObject> sources = new ArrayList<>();
+		for (String name : sourcenames) {
+			sources.add(new StringSourceFile(name, SOURCES.get(name)));
+		}
+		List<String> allopts = new ArrayList<>();
+		allopts.add("-proc:only");
+		allopts.add("-Asaker.apiextract.base_packages=test.api");
+		allopts.addAll(Arrays.asList(options));
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		try (StandardJavaFileManager fm = compiler.getStandardFileManager(diagnostics, null, null)) {
+			fm.setLocation(StandardLocation.CLASS_PATH, Collections.singleton(getClassPathEntry(PublicApi.class)));
+			fm.setLocation(StandardLocation.locationFor("API_OUTPUT"), Collections.singleton(outdir.toFile()));
+			JavaCompiler.CompilationTask task = compiler.getTask(null, fm, diagnostics, allopts, null, sources);
+			task.setProcessors(Arrays.asList(new ApiExtractProcessor(), new GeneratingProcessor()));
+			assertTrue(task.call(), "Compilation failed: " + diagnostics.getDiagnostics());
+		}
+	}
+
+	private static File getClassPathEntry(Class<?> c) throws IOException {
+		try {
+			return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static List<String> getJarEntryNames(Path jar) throws IOException {
+		try (ApiJarReader reader = ApiJarReader.open(jar)) {
+			return new ArrayList<>(reader.getEntryNames());
+		}
+	}
+
+	private static Map<String, byte[]> readFiles(Path dir) throws IOException {
+		Map<String, byte[]> result = new TreeMap<>();
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path p : (Iterable<Path>) files::iterator) {
+				if (Files.isRegularFile(p)) {
+					result.put(dir.relativize(p).toString().replace('\\', '/'), Files.readAllBytes(p));
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void deleteDirectory(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			List<Path> paths = new ArrayList<>();
+			files.forEach(paths::add);
+			Collections.reverse(paths);
+			for (Path p : paths) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	private static final class StringSourceFile extends SimpleJavaFileObject {
+		private final String content;
+
+		public StringSourceFile(String classname, String content) {
+			super(URI.create("string:///" + classname.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.content = content;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return content;
+		}
+	}
+
+	/**
+	 * Generates the <code>test.api.Generated</code> class in the first round, so the types referencing it are
+	 * unresolved until the second round.
+	 */
+	private static final class GeneratingProcessor extends AbstractProcessor {
+		private boolean generated = false;
+
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return Collections.singleton("*");
+		}
+
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latestSupported();
+		}
+
+		@Override
+		public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+			if (generated || roundEnv.getRootElements().stream()
+					.noneMatch(e -> e.getSimpleName().contentEquals("Outer"))) {
+				return false;
+			}
+			generated = true;
+			try (Writer writer = processingEnv.getFiler().createSourceFile("test.api.Generated")
+					.openWriter()) {
+				writer.write("package test.api;\n@saker.apiextract.api.PublicApi\npublic class Generated { }\n");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return false;
+		}
+	}
+}
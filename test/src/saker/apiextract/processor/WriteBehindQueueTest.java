@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.apiextract.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+/**
+ * Checks that {@link WriteBehindQueue} writes all files, and that write failures, including errors, are reported to
+ * the processing thread instead of blocking it.
+ */
+@SakerTest
+public class WriteBehindQueueTest extends SakerTestCase {
+	private static final int CAPACITY = 4;
+	private static final int FILE_COUNT = CAPACITY * 64;
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		List<MemoryFileObject> files = new ArrayList<>();
+		try (WriteBehindQueue queue = new WriteBehindQueue(CAPACITY)) {
+			for (int i = 0; i < FILE_COUNT; i++) {
+				MemoryFileObject f = new MemoryFileObject(i, null, new AtomicInteger());
+				files.add(f);
+				queue.write(f, new byte[] { (byte) i, (byte) (i >>> 8) }, "f" + i);
+			}
+		}
+		for (int i = 0; i < FILE_COUNT; i++) {
+			assertTrue(Arrays.equals(files.get(i).contents.toByteArray(), new byte[] { (byte) i, (byte) (i >>> 8) }),
+					"Contents of: " + i);
+		}
+
+		assertFailure(new LinkageError("test error"));
+		assertFailure(new IOException("test exception"));
+	}
+
+	/**
+	 * Fails a write in the middle, and expects the failure to be thrown from either the next writes or the closing.
+	 */
+	private static void assertFailure(Throwable writefailure) {
+		AtomicInteger writecount = new AtomicInteger();
+		UncheckedIOException thrown = null;
+		WriteBehindQueue queue = new WriteBehindQueue(CAPACITY);
+		try {
+			for (int i = 0; i < FILE_COUNT; i++) {
+				MemoryFileObject f = new MemoryFileObject(i, i == CAPACITY ? writefailure : null, writecount);
+				queue.write(f, new byte[] { (byte) i }, "f" + i);
+			}
+		} catch (UncheckedIOException e) {
+			thrown = e;
+		} finally {
+			try {
+				queue.close();
+			} catch (UncheckedIOException e) {
+				if (thrown == null) {
+					thrown = e;
+				}
+			}
+		}
+		assertNonNull(thrown, "No failure for: " + writefailure);
+		assertEquals(thrown.getMessage(), "Failed to write: f" + CAPACITY);
+		//the writes after the failure are not performed
+		assertEquals(writecount.get(), CAPACITY);
+	}
+
+	private static final class MemoryFileObject extends SimpleJavaFileObject {
+		protected final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+		protected final Throwable failure;
+		protected final AtomicInteger writeCount;
+
+		public MemoryFileObject(int index, Throwable failure, AtomicInteger writeCount) {
+			super(URI.create("mem:///f" + index), JavaFileObject.Kind.OTHER);
+			this.failure = failure;
+			this.writeCount = writeCount;
+		}
+
+		@Override
+		public OutputStream openOutputStream() throws IOException {
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+			writeCount.incrementAndGet();
+			return contents;
+		}
+	}
+}